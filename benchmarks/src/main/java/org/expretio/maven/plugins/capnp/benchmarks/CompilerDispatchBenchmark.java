@@ -0,0 +1,124 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.expretio.maven.plugins.capnp.CapnpCompiler;
+import org.expretio.maven.plugins.capnp.CapnpCompiler.Batch;
+import org.expretio.maven.plugins.capnp.SchemaFinder;
+import org.expretio.maven.plugins.capnp.StagingMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures dispatch of schemas to capnp processes: batching, pooling and process management. A stub capnp, which only
+ * waits for a configurable latency, stands for the compiler, so only orchestration cost is measured. Requires a unix
+ * shell.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class CompilerDispatchBenchmark
+{
+    @Param( { "100", "1000", "10000" } )
+    private int schemaCount;
+
+    @Param( { "1", "4" } )
+    private int parallelism;
+
+    @Param( { "1", "0" } )
+    private int batchSize;
+
+    @Param( { "5" } )
+    private long latencyMillis;
+
+    private File directory;
+    private File schemaDirectory;
+    private File capnp;
+    private File capnpcJava;
+    private File capnpJavaSchema;
+    private List<String> schemas;
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        directory = Corpus.createDirectory( "compiler" );
+        schemaDirectory = new File( directory, "schemas" );
+
+        Corpus.writeSchemas( schemaDirectory, schemaCount );
+
+        File nativesDirectory = new File( directory, "natives" );
+        nativesDirectory.mkdirs();
+
+        capnp = Corpus.writeCapnp( nativesDirectory, latencyMillis );
+        capnpcJava = new File( nativesDirectory, "capnpc-java" );
+        capnpJavaSchema = new File( nativesDirectory, "java.capnp" );
+        schemas = new SchemaFinder( schemaDirectory, "capnp" ).find();
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        Corpus.delete( directory );
+    }
+
+    @Benchmark
+    public List<Batch> compile()
+        throws Exception
+    {
+        return
+            CapnpCompiler.builder()
+                .setOutputDirectory( new File( directory, "output" ) )
+                .setSchemaDirectory( schemaDirectory )
+                .setWorkDirectory( new File( directory, "work" ) )
+                .setCapnpFile( capnp )
+                .setCapnpcJavaFile( capnpcJava )
+                .setCapnpJavaSchemaFile( capnpJavaSchema )
+                .addSchemas( schemas )
+                .setVerbose( false )
+                .setParallelism( parallelism )
+                .setBatchSize( batchSize )
+                .setStagingMode( StagingMode.NONE )
+                .build()
+                .compile();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.expretio.maven.plugins.capnp.util.JavaPlatform;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Generates synthetic inputs of benchmarks: schema corpora, natives jars and stub executables.
+ */
+final class Corpus
+{
+    private static final int SCHEMAS_PER_DIRECTORY = 100;
+
+    private static final String[] OS_NAMES = { "linux", "osx", "windows", "freebsd" };
+
+    private Corpus() {}
+
+    /**
+     * Creates a temporary directory, deleted by {@link #delete(File)}.
+     */
+    static File createDirectory( String prefix )
+        throws IOException
+    {
+        return Files.createTempDirectory( "capnp-benchmark-" + prefix ).toFile();
+    }
+
+    static void delete( File directory )
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    /**
+     * Writes schemas spread over directories of {@value #SCHEMAS_PER_DIRECTORY} schemas, each importing a common
+     * schema. Every directory also holds a file that is not a schema.
+     */
+    static void writeSchemas( File schemaDirectory, int count )
+        throws IOException
+    {
+        write( new File( schemaDirectory, "common.capnp" ), "@0xa000000000000000;\nstruct Common {}\n" );
+
+        for ( int i = 0; i < count; i++ )
+        {
+            File directory = new File( schemaDirectory, "package" + ( i / SCHEMAS_PER_DIRECTORY ) );
+
+            if ( i % SCHEMAS_PER_DIRECTORY == 0 )
+            {
+                write( new File( directory, "README.txt" ), "Not a schema.\n" );
+            }
+
+            write(
+                new File( directory, "schema" + i + ".capnp" ),
+                "@0x" + Long.toHexString( 0x8000000000000000L | i ) + ";\n"
+                    + "using Common = import \"/common.capnp\";\n"
+                    + "struct Schema" + i + " {\n  common @0 :Common.Common;\n  value @1 :UInt32;\n}\n" );
+        }
+    }
+
+    /**
+     * Writes a stub capnp executable, which only waits for given latency.
+     */
+    static File writeCapnp( File directory, long latencyMillis )
+        throws IOException
+    {
+        File capnp = new File( directory, "capnp" );
+
+        write( capnp, "#!/bin/sh\nsleep " + ( latencyMillis / 1000.0 ) + "\n" );
+
+        capnp.setExecutable( true );
+
+        return capnp;
+    }
+
+    /**
+     * Writes a natives jar whose descriptor covers given number of platforms, the last one being current platform.
+     *
+     * @param nativesSize size of each native executable.
+     */
+    static File writeNativesJar( File directory, int platformCount, int nativesSize )
+        throws IOException
+    {
+        File jar = new File( directory, "capnp-natives.jar" );
+        StringBuilder descriptor = new StringBuilder( "<capnp-natives>\n  <base-path>natives</base-path>\n" );
+        byte[] natives = new byte[ nativesSize ];
+
+        new Random( 0 ).nextBytes( natives );
+
+        try ( JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ) ) )
+        {
+            for ( int i = 0; i < platformCount; i++ )
+            {
+                boolean current = ( i == platformCount - 1 );
+                String osName = current ? JavaPlatform.getCurrentOs().name().toLowerCase() : OS_NAMES[ i % 4 ];
+                String archName = current ? System.getProperty( "os.arch" ) : "arch" + i;
+                String path = osName + "/" + archName + "/";
+
+                descriptor
+                    .append( "  <natives>\n    <os name=\"" ).append( osName ).append( "\"/>\n" )
+                    .append( "    <arch name=\"" ).append( archName ).append( "\">\n" )
+                    .append( "      <capnp-exec-path>" ).append( path ).append( "capnp</capnp-exec-path>\n" )
+                    .append( "      <capnpc-java-exec-path>" ).append( path )
+                    .append( "capnpc-java</capnpc-java-exec-path>\n" )
+                    .append( "      <capnp-java-schema-path>" ).append( path )
+                    .append( "java.capnp</capnp-java-schema-path>\n" )
+                    .append( "    </arch>\n  </natives>\n" );
+
+                write( out, "natives/" + path + "capnp", natives );
+                write( out, "natives/" + path + "capnpc-java", natives );
+                write( out, "natives/" + path + "java.capnp", "@0xc5f1af96651f70ea;\n".getBytes( Charsets.UTF_8 ) );
+            }
+
+            descriptor.append( "</capnp-natives>\n" );
+
+            write( out, "META-INF/capnp-natives.xml", descriptor.toString().getBytes( Charsets.UTF_8 ) );
+        }
+
+        return jar;
+    }
+
+    // [ Utility methods ]
+
+    private static void write( File file, String content )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        com.google.common.io.Files.write( content, file, Charsets.UTF_8 );
+    }
+
+    private static void write( JarOutputStream out, String name, byte[] content )
+        throws IOException
+    {
+        out.putNextEntry( new JarEntry( name ) );
+
+        out.write( content );
+
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.expretio.maven.plugins.capnp.util.JavaPlatform;
+import org.expretio.maven.plugins.capnp.util.NativesCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures extraction of natives from a natives jar into the natives cache: the first extraction, and later lookups
+ * of already extracted natives.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+public class NativesExtractionBenchmark
+{
+    /**
+     * Size of the natives executable, real capnp executables weighing a few megabytes.
+     */
+    @Param( { "1048576", "8388608" } )
+    private int nativesSize;
+
+    private File directory;
+    private URL capnpUrl;
+    private File coldCacheDirectory;
+    private File warmCacheDirectory;
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        directory = Corpus.createDirectory( "natives" );
+
+        File nativesJar = Corpus.writeNativesJar( directory, 1, nativesSize );
+        String platform = JavaPlatform.getCurrentOs().name().toLowerCase() + "/" + System.getProperty( "os.arch" );
+
+        capnpUrl = new URL( "jar:" + nativesJar.toURI() + "!/natives/" + platform + "/capnp" );
+        warmCacheDirectory = new File( directory, "warm" );
+
+        new NativesCache( warmCacheDirectory ).get( capnpUrl, "1", "benchmark" );
+    }
+
+    @Setup( Level.Invocation )
+    public void setUpInvocation()
+        throws IOException
+    {
+        if ( coldCacheDirectory != null )
+        {
+            Corpus.delete( coldCacheDirectory );
+        }
+
+        coldCacheDirectory = new File( directory, "cold" );
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        Corpus.delete( directory );
+    }
+
+    @Benchmark
+    public File extract()
+        throws IOException
+    {
+        return new NativesCache( coldCacheDirectory ).get( capnpUrl, "1", "benchmark" );
+    }
+
+    @Benchmark
+    public File lookup()
+        throws IOException
+    {
+        return new NativesCache( warmCacheDirectory ).get( capnpUrl, "1", "benchmark" );
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.expretio.maven.plugins.capnp.util.NativesManager;
+import org.expretio.maven.plugins.capnp.util.NativesManager.NativesInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures registration of natives descriptors, up to the lookup of current platform natives, for natives jars
+ * covering an increasing number of platforms.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+public class NativesRegistrationBenchmark
+{
+    @Param( { "1", "16", "64" } )
+    private int platformCount;
+
+    private File directory;
+    private File nativesJar;
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        directory = Corpus.createDirectory( "natives" );
+        nativesJar = Corpus.writeNativesJar( directory, platformCount, 1024 );
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        Corpus.delete( directory );
+    }
+
+    @Benchmark
+    public NativesInfo registerAllDescriptors()
+        throws Exception
+    {
+        NativesManager nativesManager = new NativesManager();
+
+        nativesManager.addResourceUrl( nativesJar.toURI().toURL() );
+        nativesManager.registerAllDescriptors();
+
+        return nativesManager.getNativesInfoForCurrentPlatform();
+    }
+
+    @Benchmark
+    public NativesInfo indexAllDescriptors()
+        throws Exception
+    {
+        NativesManager nativesManager = new NativesManager();
+
+        nativesManager.addResourceUrl( nativesJar.toURI().toURL() );
+        nativesManager.indexAllDescriptors();
+
+        return nativesManager.getNativesInfoForCurrentPlatform();
+    }
+}
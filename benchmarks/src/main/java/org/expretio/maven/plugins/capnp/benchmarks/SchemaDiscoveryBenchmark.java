@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.expretio.maven.plugins.capnp.SchemaFinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures discovery of the schemas of a schema directory.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+public class SchemaDiscoveryBenchmark
+{
+    @Param( { "100", "1000", "10000" } )
+    private int schemaCount;
+
+    private File schemaDirectory;
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        schemaDirectory = Corpus.createDirectory( "schemas" );
+
+        Corpus.writeSchemas( schemaDirectory, schemaCount );
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        Corpus.delete( schemaDirectory );
+    }
+
+    @Benchmark
+    public List<String> find()
+        throws IOException
+    {
+        return new SchemaFinder( schemaDirectory, "capnp" ).find();
+    }
+
+    @Benchmark
+    public List<String> findInParallel()
+        throws IOException
+    {
+        return new SchemaFinder( schemaDirectory, "capnp" ).find( Runtime.getRuntime().availableProcessors() );
+    }
+
+    @Benchmark
+    public List<String> findWithExcludes()
+        throws IOException
+    {
+        return
+            new SchemaFinder(
+                    schemaDirectory,
+                    "capnp",
+                    Collections.<String> emptyList(),
+                    Arrays.asList( "package1*/**" ) )
+                .find();
+    }
+}
@@ -0,0 +1,28 @@
+import static org.expretio.maven.plugins.capnp.util.TestUtils.*;
+
+import java.io.*;
+
+File baseDirectory = new File( basedir, "target" );
+File workDirectory = new File( baseDirectory, "work" );
+File classesDirectory = new File( baseDirectory, "classes" );
+
+assertThat( workDirectory )
+    .contains( "capnp-classes.key" );
+
+// every class compiled from generated sources is published; which classes exist depends on the natives
+File classesListFile = new File( workDirectory, "capnp-classes.lst" );
+
+assert classesListFile.isFile()
+
+for ( String publishedClass : classesListFile.readLines() )
+{
+    assertThat( classesDirectory ).contains( publishedClass );
+}
+
+String log = new File( basedir, "build.log" ).text;
+
+// generated sources are compiled in the first build only
+assert log.count( "Compiling 2 generated source(s)." ) == 1
+assert log.count( "Classes of generated sources are up to date." ) == 1
+
+return true;
@@ -0,0 +1,25 @@
+import static org.expretio.maven.plugins.capnp.util.TestUtils.*;
+
+import java.io.*;
+
+String packageBase = "org/expretio/maven/plugins/capnp";
+
+File baseDirectory = new File( basedir, "target" );
+File workDirectory = new File( baseDirectory, "work" );
+File outputDirectory = new File( baseDirectory, "output" );
+
+assertThat( workDirectory )
+    .contains( "capnp-manifest.properties" );
+
+assertThat( outputDirectory )
+    .contains( packageBase + "/alpha/AlphaCapnp.java" )
+    .contains( packageBase + "/beta/BetaCapnp.java" );
+
+String log = new File( basedir, "build.log" ).text;
+
+// capnp runs once per schema, in the first build only
+assert log.count( "compiling " + packageBase + "/alpha/alpha.capnp" ) == 1
+assert log.count( "compiling " + packageBase + "/beta/beta.capnp" ) == 1
+assert log.contains( "All schemas are up to date." )
+
+return true;
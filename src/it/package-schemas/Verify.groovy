@@ -0,0 +1,32 @@
+import static org.expretio.maven.plugins.capnp.util.TestUtils.*;
+
+import java.io.*;
+import java.util.jar.*;
+
+String packageBase = "org/expretio/maven/plugins/capnp";
+
+File baseDirectory = new File( basedir, "target" );
+
+assertThat( baseDirectory )
+    .contains( "package-schemas-it-1.0-SNAPSHOT-schemas.jar" );
+
+JarFile jar = new JarFile( new File( baseDirectory, "package-schemas-it-1.0-SNAPSHOT-schemas.jar" ) );
+
+try
+{
+    List<String> names = jar.entries().collect { it.name };
+
+    // schemas are stored relative to the schema directory, as imported
+    assert names == [ packageBase + "/alpha/alpha.capnp", packageBase + "/beta/beta.capnp" ]
+
+    // fixed entry times, so unchanged schemas give an identical jar
+    assert jar.entries().every { it.time == 315532800000L }
+}
+finally
+{
+    jar.close();
+}
+
+assert new File( basedir, "build.log" ).text.contains( "Packaged 2 schema(s) into " )
+
+return true;
@@ -0,0 +1,29 @@
+import static org.expretio.maven.plugins.capnp.util.TestUtils.*;
+
+import java.io.*;
+import java.util.regex.*;
+
+String packageBase = "org/expretio/maven/plugins/capnp";
+
+File baseDirectory = new File( basedir, "target" );
+File nativesDirectory = new File( baseDirectory, "cache/natives/0.5.3-1" );
+File outputDirectory = new File( baseDirectory, "output" );
+
+assertThat( nativesDirectory )
+    .contains( "classifiers.properties" );
+
+assertThat( outputDirectory )
+    .contains( packageBase + "/alpha/AlphaCapnp.java" )
+    .contains( packageBase + "/beta/BetaCapnp.java" );
+
+String log = new File( basedir, "build.log" ).text;
+
+// with no classifier configured, all classifiers of the natives index are prefetched
+assert log =~ /Prefetched natives of [1-9]\d* classifier\(s\)/
+
+// natives of current platform are among the prefetched ones
+Matcher matcher = log =~ /Natives classifier of current platform: (\S+)/
+assert matcher.find()
+assert new File( nativesDirectory, matcher.group( 1 ) ).listFiles().length > 0
+
+return true;
@@ -0,0 +1,3 @@
+new File( basedir, "generator.sh" ).setExecutable( true );
+
+return true;
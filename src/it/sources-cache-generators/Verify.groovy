@@ -0,0 +1,20 @@
+import static org.expretio.maven.plugins.capnp.util.TestUtils.*;
+
+import java.io.*;
+
+String packageBase = "org/expretio/maven/plugins/capnp";
+
+File baseDirectory = new File( basedir, "target" );
+File outputDirectory = new File( baseDirectory, "output" );
+File generatedDirectory = new File( baseDirectory, "generated" );
+
+assertThat( outputDirectory )
+    .contains( packageBase + "/alpha/AlphaCapnp.java" )
+    .contains( packageBase + "/beta/BetaCapnp.java" );
+
+assert generatedDirectory.list().length == 2
+
+// one run per schema, by second build only
+assert new File( basedir, "generator-runs.log" ).readLines().size() == 2
+
+return true;
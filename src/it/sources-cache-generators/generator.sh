@@ -0,0 +1,5 @@
+#!/bin/sh
+# Stores its code generator request under a name derived from its content, and logs each run.
+cat > request.tmp
+mv request.tmp "request-$( cksum < request.tmp | cut -d ' ' -f 1 ).bin"
+echo run >> "$( dirname "$0" )/generator-runs.log"
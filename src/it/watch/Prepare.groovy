@@ -0,0 +1,43 @@
+import groovy.io.FileType;
+
+import java.io.*;
+
+String packageBase = "org/expretio/maven/plugins/capnp";
+
+File schemaDirectory = new File( basedir, "schemas" );
+File alphaOutput = new File( basedir, "target/output/" + packageBase + "/alpha/AlphaCapnp.java" );
+
+File resourceDirectory = new File( basedir, "../resources" );
+
+resourceDirectory.eachFileRecurse( FileType.FILES ) { file ->
+    File copy = new File( schemaDirectory, resourceDirectory.toPath().relativize( file.toPath() ).toString() );
+    copy.parentFile.mkdirs();
+    copy.bytes = file.bytes;
+}
+
+// once the watch started, adds a schema, which must be compiled before the watch times out
+Thread.start {
+    while ( !alphaOutput.isFile() )
+    {
+        Thread.sleep( 100 );
+    }
+
+    Thread.sleep( 3000 );
+
+    File gamma = new File( schemaDirectory, packageBase + "/gamma/gamma.capnp" );
+    gamma.parentFile.mkdirs();
+    gamma.text = """@0xd4cbd6a5ee4c8f21;
+
+using Java = import "/java.capnp";
+
+\$Java.package("org.expretio.maven.plugins.capnp.gamma");
+\$Java.outerClassname("GammaCapnp");
+
+struct GammaStruct
+{
+  code @0 :Text;
+}
+""";
+}
+
+return true;
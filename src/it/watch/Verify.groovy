@@ -0,0 +1,31 @@
+import static org.expretio.maven.plugins.capnp.util.TestUtils.*;
+
+import java.io.*;
+
+String packageBase = "org/expretio/maven/plugins/capnp";
+
+File baseDirectory = new File( basedir, "target" );
+File outputDirectory = new File( baseDirectory, "output" );
+
+assertThat( outputDirectory )
+    .contains( packageBase + "/alpha/AlphaCapnp.java" )
+    .contains( packageBase + "/beta/BetaCapnp.java" )
+    .contains( packageBase + "/gamma/GammaCapnp.java" );
+
+String log = new File( basedir, "build.log" ).text;
+
+// gamma is compiled alone, alpha and beta only by the initial compilation
+assert log.contains( "Watching" )
+assert log.count( "compiling " + packageBase + "/alpha/alpha.capnp" ) == 1
+assert log.count( "compiling " + packageBase + "/gamma/gamma.capnp" ) == 1
+assert log.contains( "Stopped watching schemas after 30 seconds." )
+
+// timings are started afresh for each compilation, so the last report covers the gamma compilation only
+assert log.count( "capnp timings: " ) == 2
+
+String report = new File( baseDirectory, "capnp-timings-default.json" ).text;
+
+assert report.contains( "gamma/gamma.capnp" )
+assert !report.contains( "alpha/alpha.capnp" )
+
+return true;
@@ -0,0 +1,502 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.codehaus.plexus.util.FileUtils;
+import org.expretio.maven.plugins.capnp.util.ClassesCache;
+import org.expretio.maven.plugins.capnp.util.DirectoryLock;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Generates sources as goal <code>generate</code> does, then compiles sources generated for main schema sets into
+ * classes, kept as jars in a content-addressed cache. Classes are extracted into <code>classesDirectory</code> instead
+ * of adding generated sources to the project, so later builds with unchanged generated sources skip their java
+ * compilation, and their extraction when classes last published are still present. Test schema sets are still added
+ * to test sources.
+ */
+@Mojo(
+    name = "generate-classes",
+    defaultPhase = LifecyclePhase.GENERATE_SOURCES,
+    threadSafe = true,
+    requiresProject = true,
+    requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME,
+    requiresOnline = false
+)
+public class CapnProtoClassesMojo
+    extends CapnProtoMojo
+{
+    private static final String CLASSES_CACHE_FORMAT_VERSION = "1";
+
+    private static final String RUNTIME_GROUP_ID = "org.capnproto";
+    private static final String RUNTIME_ARTIFACT_ID = "runtime";
+
+    private static final String CLASSES_DIRECTORY_NAME = "classes";
+    private static final String CLASSES_LIST_FILE_NAME = "capnp-classes.lst";
+    private static final String CLASSES_KEY_FILE_NAME = "capnp-classes.key";
+
+    /**
+     * Directory where compiled classes are extracted.
+     */
+    @Parameter( defaultValue = "${project.build.outputDirectory}", required = true )
+    private File classesDirectory;
+
+    /**
+     * Directory of the cache of compiled classes jars, shared by all modules and builds.
+     */
+    @Parameter( defaultValue = "${settings.localRepository}/.cache/capnp-maven-plugin/classes", required = true )
+    private File classesCacheDirectory;
+
+    /**
+     * Maximum size, in megabytes, of <code>classesCacheDirectory</code>. Least recently used jars are evicted beyond
+     * it.
+     */
+    @Parameter( defaultValue = "512" )
+    private long classesCacheMaxSize;
+
+    /**
+     * Java source version of generated sources.
+     */
+    @Parameter( defaultValue = "${maven.compiler.source}" )
+    private String classesSource;
+
+    /**
+     * Java target version of compiled classes.
+     */
+    @Parameter( defaultValue = "${maven.compiler.target}" )
+    private String classesTarget;
+
+    private final List<SchemaSet> mainSets = Lists.newArrayList();
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        mainSets.clear();
+
+        super.execute();
+
+        if ( mainSets.isEmpty() )
+        {
+            return;
+        }
+
+        File workDirectory = getWorkDirectory();
+
+        try
+        {
+            DirectoryLock lock = lockWorkDirectory( workDirectory );
+
+            try
+            {
+                generateClasses();
+            }
+            finally
+            {
+                lock.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to cache classes of generated sources.", e );
+        }
+    }
+
+    /**
+     * Adds test sets to test sources; main sets are compiled into classes instead.
+     */
+    @Override
+    protected void addSourceRoot( SchemaSet set )
+    {
+        if ( set.isTestSources() )
+        {
+            super.addSourceRoot( set );
+        }
+        else
+        {
+            mainSets.add( set );
+        }
+    }
+
+    // [ Utility methods ]
+
+    /**
+     * Compiles, or restores from classes cache, the classes of sources generated for main sets, then publishes them,
+     * unless classes of the same key were last published and are still present.
+     */
+    private void generateClasses()
+        throws MojoExecutionException, IOException
+    {
+        List<File> sourceDirectories = Lists.newArrayList();
+
+        for ( SchemaSet set : mainSets )
+        {
+            sourceDirectories.add( set.getOutputDirectory() );
+        }
+
+        List<File> sources = getSources( sourceDirectories );
+
+        if ( sources.isEmpty() )
+        {
+            return;
+        }
+
+        String key = getClassesKey( sourceDirectories, sources );
+        File keyFile = new File( getWorkDirectory(), CLASSES_KEY_FILE_NAME );
+
+        if ( isPublished( key, keyFile ) )
+        {
+            getLog().info( "Classes of generated sources are up to date." );
+
+            return;
+        }
+
+        ClassesCache classesCache = new ClassesCache( classesCacheDirectory, classesCacheMaxSize * 1024 * 1024 );
+        File compiledDirectory = new File( getWorkDirectory(), CLASSES_DIRECTORY_NAME );
+
+        FileUtils.deleteDirectory( compiledDirectory );
+        compiledDirectory.mkdirs();
+
+        File jarFile = classesCache.get( key );
+
+        if ( jarFile != null )
+        {
+            ClassesCache.extract( jarFile, compiledDirectory );
+
+            getLog().info( "Classes of " + sources.size() + " generated source(s) restored from classes cache." );
+        }
+        else
+        {
+            compile( sources, compiledDirectory );
+
+            classesCache.put( key, compiledDirectory );
+            classesCache.evict();
+        }
+
+        publish( compiledDirectory );
+
+        Files.write( keyFile.toPath(), key.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Returns true if classes of a key were the last published, and all of them are still in classes directory.
+     */
+    private boolean isPublished( String key, File keyFile )
+        throws IOException
+    {
+        File classesListFile = new File( getWorkDirectory(), CLASSES_LIST_FILE_NAME );
+
+        if ( !keyFile.isFile() || !classesListFile.isFile()
+            || !key.equals( new String( Files.readAllBytes( keyFile.toPath() ), StandardCharsets.UTF_8 ) ) )
+        {
+            return false;
+        }
+
+        for ( String publishedClass : Files.readAllLines( classesListFile.toPath(), StandardCharsets.UTF_8 ) )
+        {
+            if ( !new File( classesDirectory, publishedClass ).isFile() )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns generated java sources, sorted by directory then by relative path.
+     */
+    private List<File> getSources( List<File> sourceDirectories )
+        throws MojoExecutionException
+    {
+        List<File> sources = Lists.newArrayList();
+
+        try
+        {
+            for ( File sourceDirectory : sourceDirectories )
+            {
+                if ( !sourceDirectory.isDirectory() )
+                {
+                    continue;
+                }
+
+                List<String> directorySources = FileUtils.getFileNames( sourceDirectory, "**/*.java", null, false );
+                Collections.sort( directorySources );
+
+                for ( String directorySource : directorySources )
+                {
+                    sources.add( new File( sourceDirectory, directorySource ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to list generated sources.", e );
+        }
+
+        return sources;
+    }
+
+    /**
+     * Computes the cache key of classes, along with the capnproto runtime version and the compiler configuration.
+     * Generated sources are fully determined by the inputs of their generation, so they are keyed by the generation
+     * fingerprints of their schema sets, which do not depend on where the project is located, and identical sources
+     * of different checkouts share entries. Sources of sets without a generation fingerprint are keyed by content.
+     */
+    private String getClassesKey( List<File> sourceDirectories, List<File> sources )
+        throws MojoExecutionException
+    {
+        Hasher hasher = Hashing.sha1().newHasher();
+
+        for ( String value : Lists.newArrayList(
+                CLASSES_CACHE_FORMAT_VERSION,
+                getRuntimeVersion(),
+                String.valueOf( classesSource ),
+                String.valueOf( classesTarget ),
+                System.getProperty( "java.specification.version" ) ) )
+        {
+            hasher.putString( value, Charsets.UTF_8 ).putByte( (byte) 0 );
+        }
+
+        Set<Integer> fingerprinted = Sets.newHashSet();
+
+        for ( int i = 0; i < mainSets.size(); i++ )
+        {
+            String fingerprint = getGenerationFingerprint( mainSets.get( i ) );
+
+            if ( fingerprint != null )
+            {
+                hasher.putString( i + ":" + fingerprint, Charsets.UTF_8 ).putByte( (byte) 0 );
+
+                fingerprinted.add( i );
+            }
+        }
+
+        try
+        {
+            for ( File source : sources )
+            {
+                int index = getDirectoryIndex( sourceDirectories, source );
+
+                if ( !fingerprinted.contains( index ) )
+                {
+                    hasher
+                        .putString( getRelativePath( sourceDirectories, source ), Charsets.UTF_8 )
+                        .putByte( (byte) 0 )
+                        .putBytes( Files.readAllBytes( source.toPath() ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to read generated sources.", e );
+        }
+
+        return hasher.hash().toString();
+    }
+
+    private String getRuntimeVersion()
+    {
+        for ( Artifact artifact : getProject().getArtifacts() )
+        {
+            if ( RUNTIME_GROUP_ID.equals( artifact.getGroupId() )
+                && RUNTIME_ARTIFACT_ID.equals( artifact.getArtifactId() ) )
+            {
+                return artifact.getVersion();
+            }
+        }
+
+        return "none";
+    }
+
+    private void compile( List<File> sources, File compiledDirectory )
+        throws MojoExecutionException, IOException
+    {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+
+        if ( javac == null )
+        {
+            throw new MojoExecutionException( "No java compiler available: goal generate-classes requires a JDK." );
+        }
+
+        List<String> options =
+            Lists.newArrayList(
+                "-d", compiledDirectory.getAbsolutePath(),
+                "-classpath", getClasspath(),
+                "-encoding", "UTF-8",
+                "-g",
+                "-nowarn",
+                "-proc:none" );
+
+        if ( classesSource != null )
+        {
+            options.add( "-source" );
+            options.add( classesSource );
+        }
+
+        if ( classesTarget != null )
+        {
+            options.add( "-target" );
+            options.add( classesTarget );
+        }
+
+        getLog().info( "Compiling " + sources.size() + " generated source(s)." );
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+        try ( StandardJavaFileManager fileManager =
+            javac.getStandardFileManager( diagnostics, Locale.getDefault(), StandardCharsets.UTF_8 ) )
+        {
+            boolean succeeded =
+                javac
+                    .getTask(
+                        null,
+                        fileManager,
+                        diagnostics,
+                        options,
+                        null,
+                        fileManager.getJavaFileObjectsFromFiles( sources ) )
+                    .call();
+
+            if ( !succeeded )
+            {
+                for ( Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics() )
+                {
+                    if ( diagnostic.getKind() == Diagnostic.Kind.ERROR )
+                    {
+                        getLog().error( diagnostic.toString() );
+                    }
+                }
+
+                throw new MojoExecutionException( "Unable to compile generated sources." );
+            }
+        }
+    }
+
+    /**
+     * Returns the compile classpath of the project, without its own classes, which may hold stale generated classes.
+     */
+    private String getClasspath()
+        throws MojoExecutionException
+    {
+        try
+        {
+            List<String> elements = Lists.newArrayList( getProject().getCompileClasspathElements() );
+            elements.remove( getProject().getBuild().getOutputDirectory() );
+
+            return Joiner.on( File.pathSeparator ).join( elements );
+        }
+        catch ( DependencyResolutionRequiredException e )
+        {
+            throw new MojoExecutionException( "Unable to get compile classpath.", e );
+        }
+    }
+
+    /**
+     * Synchronizes classes directory with compiled classes, replacing only changed classes and deleting classes
+     * previously extracted but no longer compiled.
+     */
+    private void publish( File compiledDirectory )
+        throws IOException
+    {
+        File classesListFile = new File( getWorkDirectory(), CLASSES_LIST_FILE_NAME );
+        List<String> previousClasses =
+            classesListFile.isFile()
+                ? Files.readAllLines( classesListFile.toPath(), StandardCharsets.UTF_8 )
+                : Collections.<String> emptyList();
+
+        OutputSynchronizer synchronizer = new OutputSynchronizer( classesDirectory );
+        OutputSynchronizer.Result result = synchronizer.copy( compiledDirectory );
+
+        List<String> staleClasses = Lists.newArrayList( previousClasses );
+        staleClasses.removeAll( result.getGeneratedFiles() );
+        synchronizer.delete( staleClasses );
+
+        Files.write( classesListFile.toPath(), result.getGeneratedFiles(), StandardCharsets.UTF_8 );
+
+        getLog().info( result.getChangedFiles().size() + " generated class(es) changed." );
+    }
+
+    /**
+     * Returns the path of a source relative to its directory, prefixed by the index of the directory.
+     */
+    private static String getRelativePath( List<File> sourceDirectories, File source )
+    {
+        int index = getDirectoryIndex( sourceDirectories, source );
+
+        if ( index < 0 )
+        {
+            return source.getPath();
+        }
+
+        Path directory = sourceDirectories.get( index ).toPath();
+
+        return index + ":" + directory.relativize( source.toPath() ).toString().replace( File.separatorChar, '/' );
+    }
+
+    /**
+     * Returns the index of the directory holding a source, or -1 if none does.
+     */
+    private static int getDirectoryIndex( List<File> sourceDirectories, File source )
+    {
+        for ( int i = 0; i < sourceDirectories.size(); i++ )
+        {
+            if ( source.toPath().startsWith( sourceDirectories.get( i ).toPath() ) )
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
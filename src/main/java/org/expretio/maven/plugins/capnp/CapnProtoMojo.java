@@ -22,26 +22,39 @@
  */
 package org.expretio.maven.plugins.capnp;
 
-import static com.google.common.io.Files.fileTreeTraverser;
 import static org.expretio.maven.plugins.capnp.util.JavaPlatform.getCanonicalArchitecture;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
@@ -50,33 +63,47 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.Scanner;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.ArtifactRequest;
 import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.expretio.maven.plugins.capnp.CapnpCompiler.Batch;
+import org.expretio.maven.plugins.capnp.util.DirectoryLock;
+import org.expretio.maven.plugins.capnp.util.ImportScanner;
 import org.expretio.maven.plugins.capnp.util.JavaPlatform;
+import org.expretio.maven.plugins.capnp.util.NativesCache;
 import org.expretio.maven.plugins.capnp.util.NativesManager;
 import org.expretio.maven.plugins.capnp.util.NativesManager.NativesInfo;
 import org.expretio.maven.plugins.capnp.util.NativesManagerException;
+import org.expretio.maven.plugins.capnp.util.SchemasCache;
+import org.expretio.maven.plugins.capnp.util.SourcesCache;
 import org.sonatype.plexus.build.incremental.BuildContext;
 import org.sonatype.plexus.build.incremental.DefaultBuildContext;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @Mojo(
     name = "generate",
     defaultPhase = LifecyclePhase.GENERATE_SOURCES,
     threadSafe = true,
     requiresProject = true,
-    requiresDependencyResolution = ResolutionScope.RUNTIME,
+    requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME,
     requiresOnline = false
 )
 public class CapnProtoMojo
@@ -89,6 +116,18 @@ public class CapnProtoMojo
     private static final String NATIVES_ARTIFACT_ID = "capnp-natives";
     private static final String NATIVES_INDEX_CLASSIFIER = "capnp-natives-index";
 
+    private static final String UNMANAGED_CLASSIFIER = "unmanaged";
+
+    private static final String SESSION_KEY_PREFIX = CapnProtoMojo.class.getName() + ":";
+
+    private static final String MANIFEST_FILE_NAME = "capnp-manifest.properties";
+    private static final String GENERATION_DIRECTORY_NAME = "generated";
+    private static final String REQUEST_DIRECTORY_NAME = "requests";
+    private static final String REQUEST_FILE_EXTENSION = ".bin";
+    private static final String SCHEMA_SETS_DIRECTORY_NAME = "schema-sets";
+
+    private static final String SOURCES_CACHE_FORMAT_VERSION = "3";
+
     @Component
     private BuildContext buildContext = new DefaultBuildContext();
 
@@ -98,12 +137,19 @@ public class CapnProtoMojo
     @Parameter( defaultValue = "${project}", readonly = true )
     private MavenProject mavenProject;
 
+    @Parameter( defaultValue = "${mojoExecution}", readonly = true )
+    private MojoExecution mojoExecution;
+
     @Parameter( defaultValue = "${repositorySystemSession}", readonly = true )
     private RepositorySystemSession repositorySession;
 
     @Parameter( defaultValue = "${project.remoteProjectRepositories}", readonly = true )
     private List<RemoteRepository> remoteRepository;
 
+    /**
+     * Set to false to run capnp without <code>--verbose</code> and to log its output only when a compilation fails.
+     * Output of each schema, or batch of schemas, is logged as a single block.
+     */
     @Parameter( defaultValue = "true" )
     private boolean verbose;
 
@@ -142,6 +188,33 @@ public class CapnProtoMojo
     @Parameter
     private String[] schemas;
 
+    /**
+     * Glob patterns of schemas to compile, relative to <code>schemaDirectory</code>, such as
+     * <code>org/expretio/**</code>. If none, all schemas are compiled. Ignored when <code>schemas</code> are
+     * specified.
+     *
+     * @see #schemas
+     */
+    @Parameter
+    private String[] includes;
+
+    /**
+     * Glob patterns of schemas not to compile, relative to <code>schemaDirectory</code>. Directories matching a
+     * pattern, or <code>foo</code> for a <code>foo/**</code> pattern, are not walked at all. Ignored when
+     * <code>schemas</code> are specified.
+     *
+     * @see #schemas
+     */
+    @Parameter
+    private String[] excludes;
+
+    /**
+     * Set to true to walk <code>schemaDirectory</code> with as many threads as <code>parallelism</code>, which may
+     * speed up discovery of very large schema trees.
+     */
+    @Parameter( defaultValue = "false" )
+    private boolean parallelSchemaDiscovery;
+
     /**
      * Supplementary import directories. Note: <code>schemaDirectory</code> is implicitly considered as an import
      * directory.
@@ -151,6 +224,28 @@ public class CapnProtoMojo
     @Parameter
     private File[] importDirectories;
 
+    /**
+     * Schema artifacts, as attached by goal <code>package-schemas</code>, whose schemas are imported by all schema
+     * sets, in addition to project dependencies with classifier <code>schemas</code>, which are always imported. Each
+     * artifact is identified by <code>groupId</code> and <code>artifactId</code>, with a <code>classifier</code>
+     * defaulting to <code>schemas</code> and a <code>version</code> defaulting to the version of the matching project
+     * dependency. Schemas are extracted once into <code>cacheDirectory</code>, and the extracted directory is passed as
+     * an import directory.
+     *
+     * @see #cacheDirectory
+     */
+    @Parameter
+    private ImportArtifact[] importArtifacts;
+
+    /**
+     * Additional schema sets, each with its own <code>schemaDirectory</code>, <code>outputDirectory</code>,
+     * <code>importDirectories</code>, <code>schemas</code>, <code>includes</code> and <code>excludes</code>, and with
+     * <code>testSources</code> set to true to add its generated sources to test sources. Sets are compiled
+     * concurrently, sharing natives and a single pool of capnp processes.
+     */
+    @Parameter
+    private SchemaSet[] schemaSets;
+
     /**
      * Version of the <code>org.expretio.maven:capnp-natives</code> dependency.
      */
@@ -171,210 +266,1970 @@ public class CapnProtoMojo
     @Parameter( defaultValue = "true", required = true )
     private boolean handleNativeDependency;
 
-    private final NativesManager nativesManager = new NativesManager();
+    /**
+     * Set to false to register descriptors of all platforms up front, through a class loader. By default, descriptors
+     * of managed natives are only indexed, and natives of current platform are looked up directly in their jar.
+     */
+    @Parameter( defaultValue = "true", required = true )
+    private boolean lazyNativesRegistration;
+
+    /**
+     * Maximum number of schemas compiled concurrently. When zero or negative, the number of available processors is
+     * used.
+     */
+    @Parameter( defaultValue = "0" )
+    private int parallelism;
+
+    /**
+     * Maximum number of schemas compiled by a single capnp invocation. Batching saves process startups and repeated
+     * parsing of shared imports. Zero means no limit other than the maximum command line length of the platform.
+     */
+    @Parameter( defaultValue = "1" )
+    private int batchSize;
+
+    /**
+     * Maximum time, in seconds, the compilation of a schema, or batch of schemas, may take. Timed out capnp processes
+     * are killed along with the plugins they started. Zero means no limit.
+     */
+    @Parameter( defaultValue = "0" )
+    private long schemaTimeout;
+
+    /**
+     * Maximum time, in seconds, the compilation of all schemas may take. Zero means no limit.
+     */
+    @Parameter( defaultValue = "0" )
+    private long compileTimeout;
+
+    /**
+     * Set to false to compile every schema on each execution. Otherwise, a manifest of schema fingerprints is kept in
+     * <code>workDirectory</code> and only schemas that changed since last execution are compiled.
+     */
+    @Parameter( defaultValue = "true" )
+    private boolean incremental;
+
+    /**
+     * Set to false to let capnp write generated sources directly into <code>outputDirectory</code>. Otherwise, sources
+     * are generated in <code>workDirectory</code> and only files whose content changed are replaced in
+     * <code>outputDirectory</code>, keeping unchanged files untouched for incremental java compilers. When
+     * <code>incremental</code> is also enabled, outputs of deleted or renamed schemas are removed.
+     */
+    @Parameter( defaultValue = "true" )
+    private boolean preserveUnchangedOutputs;
+
+    /**
+     * Set to true to compile schemas in two stages: capnp parses schemas into code generator requests, kept in
+     * <code>workDirectory</code>, which are then fed to capnpc-java and to additional <code>generators</code>. A
+     * request is parsed again only when its schemas, their imports or the compiler configuration change.
+     *
+     * @see #generators
+     */
+    @Parameter( defaultValue = "false" )
+    private boolean cacheCodeGeneratorRequests;
+
+    /**
+     * Additional capnp generator plugins, each with its <code>executable</code> and <code>outputDirectory</code>, fed
+     * with the same code generator requests as capnpc-java. Requires <code>cacheCodeGeneratorRequests</code>.
+     *
+     * @see #cacheCodeGeneratorRequests
+     */
+    @Parameter
+    private Generator[] generators;
+
+    /**
+     * Defines how schemas are staged in <code>workDirectory</code> before compilation: <code>COPY</code> copies the
+     * whole schema directory, <code>NONE</code> compiles from schema directory itself, <code>SYNC</code> copies only
+     * changed schema files and <code>LINK</code> links schema files.
+     */
+    @Parameter( defaultValue = "COPY" )
+    private StagingMode schemaStaging;
+
+    /**
+     * Base directory of caches shared by all modules and builds, such as extracted natives and schemas of import
+     * artifacts.
+     */
+    @Parameter( defaultValue = "${settings.localRepository}/.cache/capnp-maven-plugin", required = true )
+    private File cacheDirectory;
+
+    /**
+     * Set to false to copy natives into <code>workDirectory</code> on each execution, instead of running them from
+     * <code>cacheDirectory</code> where they are extracted once.
+     *
+     * @see #cacheDirectory
+     */
+    @Parameter( defaultValue = "true" )
+    private boolean useNativesCache;
+
+    /**
+     * Directory of a cache of generated sources, which may be shared by all checkouts of a machine. When set, sources
+     * generated from a schema are stored under a key covering the contents of the schema and of its transitive
+     * imports, the natives version and platform, the compiler flags and the <code>generators</code>; later
+     * compilations of an identical schema restore them into <code>outputDirectory</code>, and outputs of generators
+     * into their own directories, without running capnp. Requires <code>incremental</code> and
+     * <code>preserveUnchangedOutputs</code>, and natives handled by this plugin. Only schemas compiled alone, as with
+     * the default <code>batchSize</code>, are stored.
+     *
+     * @see #sourcesCacheMaxSize
+     */
+    @Parameter
+    private File sourcesCacheDirectory;
+
+    /**
+     * JSON report of time spent in each stage of the execution and in the compilation of each schema, identified by
+     * its schema directory and path. A summary is also logged. Stages of concurrently compiled schema sets are summed.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/capnp-timings-${mojoExecution.executionId}.json" )
+    private File timingReport;
+
+    /**
+     * Maximum size, in megabytes, of <code>sourcesCacheDirectory</code>. Least recently used entries are evicted
+     * beyond it.
+     *
+     * @see #sourcesCacheDirectory
+     */
+    @Parameter( defaultValue = "256" )
+    private long sourcesCacheMaxSize;
+
+    private final List<URL> nativesUrls = Lists.newArrayList();
+
+    private String nativesClassifier = UNMANAGED_CLASSIFIER;
+
+    private Timings timings = new Timings();
+
+    private File capnpFile;
+    private File capnpcJavaFile;
+    private File capnpJavaSchemaFile;
+    private String nativesFingerprint;
 
     @Override
     public void execute()
         throws MojoExecutionException, MojoFailureException
     {
-        mavenProject.addCompileSourceRoot( outputDirectory.getAbsolutePath() );
+        startTimings();
 
-        Scanner scanner = buildContext.newScanner( schemaDirectory );
-        scanner.scan();
+        try
+        {
+            compile( prepareSchemaSets() );
+        }
+        finally
+        {
+            writeTimings();
+        }
+    }
+
+    /**
+     * Starts timings of a new compilation, replacing timings of previous ones.
+     */
+    protected void startTimings()
+    {
+        timings = new Timings( mavenProject.getBasedir() );
+    }
+
+    /**
+     * Prepares schema sets for compilation, once per execution: resolves import artifacts and adds output directories
+     * to project sources.
+     */
+    protected List<SchemaSet> prepareSchemaSets()
+        throws MojoExecutionException
+    {
+        List<SchemaSet> sets = getSchemaSets();
+        List<File> artifactDirectories = resolveImportArtifacts();
 
-        if ( scanner.getIncludedFiles().length < 1 )
+        for ( SchemaSet set : sets )
         {
-            return;
+            set.addImportDirectories( artifactDirectories );
+
+            addSourceRoot( set );
         }
 
-        if ( handleNativeDependency )
+        return sets;
+    }
+
+    /**
+     * Compiles stale schemas of prepared schema sets.
+     */
+    protected void compile( List<SchemaSet> sets )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( sets.size() == 1 )
         {
-            doHandleNativesDependency();
+            compile( sets.get( 0 ), null );
+        }
+        else
+        {
+            compileConcurrently( sets );
+        }
+    }
+
+    /**
+     * Adds the output directory of a schema set to main or test sources of the project.
+     */
+    protected void addSourceRoot( SchemaSet set )
+    {
+        if ( set.isTestSources() )
+        {
+            mavenProject.addTestCompileSourceRoot( set.getOutputDirectory().getAbsolutePath() );
+        }
+        else
+        {
+            mavenProject.addCompileSourceRoot( set.getOutputDirectory().getAbsolutePath() );
         }
+    }
+
+    /**
+     * Compiles schema sets concurrently. Sets share natives, extracted once, and a single pool of capnp processes
+     * bounded by <code>parallelism</code>.
+     */
+    private void compileConcurrently( List<SchemaSet> sets )
+        throws MojoExecutionException, MojoFailureException
+    {
+        final ExecutorService compilerPool =
+            Executors.newFixedThreadPool(
+                    getParallelism(),
+                    new ThreadFactoryBuilder().setNameFormat( "capnp-compiler-%d" ).setDaemon( true ).build() );
 
-        nativesManager.registerAllDescriptors();
+        ExecutorService setPool =
+            Executors.newFixedThreadPool(
+                    sets.size(),
+                    new ThreadFactoryBuilder().setNameFormat( "capnp-schema-set-%d" ).setDaemon( true ).build() );
 
-        workDirectory.mkdirs();
+        try
+        {
+            Map<SchemaSet, Future<Void>> futures = Maps.newLinkedHashMap();
 
-        NativesInfo currentNativesInfo = nativesManager.getNativesInfoForCurrentPlatform();
+            for ( final SchemaSet set : sets )
+            {
+                futures.put(
+                    set,
+                    setPool.submit(
+                        new Callable<Void>()
+                        {
+                            @Override
+                            public Void call()
+                                throws MojoExecutionException, MojoFailureException
+                            {
+                                compile( set, compilerPool );
 
-        CapnpCompiler compiler =
-            CapnpCompiler.builder()
-                .setOutputDirectory( outputDirectory )
-                .setSchemaDirectory( schemaDirectory )
-                .setWorkDirectory( workDirectory )
-                .setCapnpFile( copyResource( currentNativesInfo.getCapnpUrl(), workDirectory ) )
-                .setCapnpcJavaFile( copyResource( currentNativesInfo.getCapnpcJavaUrl(), workDirectory ) )
-                .setCapnpJavaSchemaFile( copyResource( currentNativesInfo.getCapnpJavaSchemaUrl(), workDirectory ) )
-                .addSchemas( getSchemas() )
-                .addImportDirectories( getImportDirectories() )
-                .setVerbose( verbose )
-                .build();
+                                return null;
+                            }
+                        } ) );
+            }
 
-        compiler.compile();
+            waitFor( futures );
+        }
+        finally
+        {
+            setPool.shutdownNow();
+            compilerPool.shutdownNow();
+        }
     }
 
-    private void doHandleNativesDependency()
-        throws MojoExecutionException
+    /**
+     * Waits for all schema sets, reporting every failure.
+     */
+    private void waitFor( Map<SchemaSet, Future<Void>> futures )
+        throws MojoExecutionException, MojoFailureException
     {
-        String classifier;
+        Map<SchemaSet, Throwable> failures = Maps.newLinkedHashMap();
 
-        if ( nativeDependencyClassifier.equals( AUTO_CLASSIFIER_DEFAULT ) )
+        for ( Map.Entry<SchemaSet, Future<Void>> entry : futures.entrySet() )
         {
-            Table<String, String, String> indexTable = HashBasedTable.create();
-
             try
             {
-                XMLConfiguration index = new XMLConfiguration();
+                entry.getValue().get();
+            }
+            catch ( ExecutionException e )
+            {
+                failures.put( entry.getKey(), e.getCause() );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
 
-                index.load( resolve( createNativesIndexArtifact() ) );
+                throw new MojoExecutionException( "Interrupted while compiling schema sets.", e );
+            }
+        }
 
-                for ( HierarchicalConfiguration indexEntry : index.configurationsAt( "entry" ) )
-                {
-                    String osName = indexEntry.getString( "os-name" );
-                    String archNames = indexEntry.getString( "arch-names" );
-                    String mavenClassifier = indexEntry.getString( "maven-classifier" );
+        if ( failures.isEmpty() )
+        {
+            return;
+        }
 
-                    for ( String archName : Splitter.on( ',' ).omitEmptyStrings().trimResults().split( archNames ) )
-                    {
-                        indexTable
-                            .put(
-                                osName.toUpperCase(),
-                                getCanonicalArchitecture( archName ),
-                                mavenClassifier );
-                    }
-                }
+        Throwable firstFailure = failures.values().iterator().next();
 
-                classifier =
-                    indexTable
-                        .get(
-                            JavaPlatform.getCurrentOs().toString(),
-                            getCanonicalArchitecture( JavaPlatform.getCurrentArch() ) );
+        if ( failures.size() == 1 )
+        {
+            if ( firstFailure instanceof MojoFailureException )
+            {
+                throw (MojoFailureException) firstFailure;
             }
-            catch ( Exception e )
+
+            if ( firstFailure instanceof MojoExecutionException )
             {
-                throw new NativesManagerException( e );
+                throw (MojoExecutionException) firstFailure;
             }
         }
-        else
+
+        StringBuilder message = new StringBuilder( failures.size() + " schema set(s) failed:" );
+
+        for ( Map.Entry<SchemaSet, Throwable> entry : failures.entrySet() )
         {
-            classifier = nativeDependencyClassifier;
+            message.append( "\n  " ).append( entry.getKey() ).append( ": " ).append( entry.getValue().getMessage() );
         }
 
-        nativesManager.addResourceUrl( resolve( createNativesArtifact( classifier ) ) );
-    }
+        MojoExecutionException exception = new MojoExecutionException( message.toString(), firstFailure );
 
-    private Artifact createNativesArtifact( String classifier )
-        throws MojoExecutionException
-    {
-        return new DefaultArtifact(
-                    NATIVES_GROUP_ID,
-                    NATIVES_ARTIFACT_ID,
-                    classifier,
-                    "jar",
-                    nativeDependencyVersion );
-    }
+        for ( Throwable failure : failures.values() )
+        {
+            if ( failure != firstFailure )
+            {
+                exception.addSuppressed( failure );
+            }
+        }
 
-    private Artifact createNativesIndexArtifact()
-    {
-        return new DefaultArtifact(
-                    NATIVES_GROUP_ID,
-                    NATIVES_ARTIFACT_ID,
-                    NATIVES_INDEX_CLASSIFIER,
-                    "xml",
-                    nativeDependencyVersion );
+        throw exception;
     }
 
-    private URL resolve( Artifact artifact )
-        throws MojoExecutionException
+    /**
+     * Compiles stale schemas of a set, holding the lock of its work directory so executions of this build, or of
+     * concurrent builds, sharing the directory wait for each other instead of overwriting staged schemas, generated
+     * sources and manifest of one another.
+     *
+     * @param compilerPool pool shared with other sets running capnp processes, or <code>null</code>.
+     */
+    private void compile( SchemaSet set, ExecutorService compilerPool )
+        throws MojoExecutionException, MojoFailureException
     {
-        ArtifactRequest request = new ArtifactRequest( artifact, remoteRepository, null );
+        File workDirectory = set.getWorkDirectory();
 
         try
         {
-            return
-                repositorySystem
-                    .resolveArtifact( repositorySession, request )
-                    .getArtifact()
-                    .getFile()
-                    .toURI()
-                    .toURL();
+            DirectoryLock lock = lockWorkDirectory( workDirectory );
+
+            try
+            {
+                doCompile( set, compilerPool );
+            }
+            finally
+            {
+                lock.close();
+            }
         }
-        catch ( ArtifactResolutionException | MalformedURLException e )
+        catch ( IOException e )
         {
-            throw new MojoExecutionException( "Cannot resolve artifact: " + artifact, e );
+            throw new MojoExecutionException( "Unable to lock work directory: " + workDirectory, e );
         }
     }
 
-    private Collection<String> getSchemas()
+    /**
+     * Locks a work directory, waiting for other executions holding it.
+     */
+    protected DirectoryLock lockWorkDirectory( File workDirectory )
+        throws IOException, MojoExecutionException
     {
-        if ( schemas == null )
+        DirectoryLock lock = DirectoryLock.tryLock( workDirectory );
+
+        if ( lock != null )
+        {
+            return lock;
+        }
+
+        getLog().info( "Waiting for another execution using work directory: " + workDirectory );
+
+        try
         {
-            return getAllSchemas();
+            return DirectoryLock.lock( workDirectory );
         }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
 
-        return Arrays.asList( schemas );
+            throw new MojoExecutionException( "Interrupted while waiting for work directory: " + workDirectory, e );
+        }
     }
 
-    private Collection<String> getAllSchemas()
+    private void doCompile( SchemaSet set, ExecutorService compilerPool )
+        throws MojoExecutionException, MojoFailureException
     {
-        List<String> allSchemas = Lists.newArrayList();
+        File workDirectory = set.getWorkDirectory();
+        File manifestFile = new File( workDirectory, MANIFEST_FILE_NAME );
+        Set<File> changedFiles = null;
+        SchemaManifest previousManifest = null;
 
-        for ( File file : fileTreeTraverser().preOrderTraversal( schemaDirectory ) )
+        if ( incremental && buildContext.isIncremental() && manifestFile.isFile()
+            && set.getOutputDirectory().isDirectory() )
         {
-            if ( isSchema( file ) )
+            changedFiles = getChangedFiles( set );
+
+            if ( changedFiles.isEmpty() )
             {
-                allSchemas.add( relativize( file.toPath() ) );
+                previousManifest = loadManifest( manifestFile );
+
+                if ( previousManifest != null
+                    && previousManifest.getSchemasWithMissingOutputs( set.getOutputDirectory() ).isEmpty() )
+                {
+                    getLog().info( "No schema changed since last build." );
+
+                    return;
+                }
             }
         }
 
-        return allSchemas;
-    }
+        Collection<String> allSchemas;
 
-    private Collection<File> getImportDirectories()
-    {
-        if ( importDirectories == null )
+        Timings.Measure discoveryMeasure = timings.start( "discovery" );
+
+        try
         {
-            return Collections.EMPTY_LIST;
+            allSchemas = getSchemas( set );
+        }
+        finally
+        {
+            discoveryMeasure.close();
         }
 
-        return Arrays.asList( importDirectories );
-    }
+        if ( allSchemas.isEmpty() )
+        {
+            return;
+        }
 
-    private boolean isSchema( File file )
-    {
-        return ( !file.isDirectory() && file.getName().endsWith( "." + schemaFileExtension ) );
-    }
+        SchemaManifest manifest;
+        Collection<String> staleSchemas;
 
-    private String relativize( Path path )
-    {
-        // capnp native program is not compatible with windows file separator
-        return schemaDirectory.toPath().relativize( path ).toString().replace( '\\', '/' );
-    }
+        Timings.Measure fingerprintingMeasure = timings.start( "fingerprinting" );
 
-    private File copyResource( URL source, File target )
-        throws MojoExecutionException
-    {
         try
         {
-            String fileName = new File( source.getPath() ).getName();
-            File targetFile = new File( target, fileName );
-
-            try (
-                InputStream in = new BufferedInputStream( source.openStream() );
-                OutputStream out = new BufferedOutputStream( new FileOutputStream( targetFile ) );
-            )
+            if ( previousManifest == null )
             {
-                ByteStreams.copy( in, out );
-
-                targetFile.setExecutable( true );
-
-                return targetFile;
+                previousManifest = loadManifest( manifestFile );
             }
+
+            manifest = createManifest( set, allSchemas, previousManifest, changedFiles );
+            staleSchemas = getStaleSchemas( set, allSchemas, manifest, previousManifest );
         }
-        catch ( Exception e )
+        finally
         {
-            throw new MojoExecutionException( "Unable to copy natives to work directory: " + workDirectory, e );
+            fingerprintingMeasure.close();
+        }
+
+        if ( staleSchemas.isEmpty() )
+        {
+            pruneOutputs( set, manifest, previousManifest );
+            storeManifest( set, manifest, previousManifest );
+
+            getLog().info( "All schemas are up to date." );
+
+            return;
         }
+
+        SourcesCache sourcesCache = getSourcesCache();
+        Map<String, String> sourceKeys;
+
+        Timings.Measure sourcesCacheMeasure = timings.start( "sources-cache" );
+
+        try
+        {
+            sourceKeys = getSourceKeys( set, sourcesCache, staleSchemas, manifest );
+            staleSchemas = restoreOutputs( set, sourcesCache, sourceKeys, staleSchemas, manifest );
+        }
+        finally
+        {
+            sourcesCacheMeasure.close();
+        }
+
+        if ( staleSchemas.isEmpty() )
+        {
+            pruneOutputs( set, manifest, previousManifest );
+            storeManifest( set, manifest, previousManifest );
+
+            getLog().info( "All changed schemas restored from sources cache." );
+
+            return;
+        }
+
+        prepareNatives();
+
+        CapnpCompiler compiler;
+
+        Timings.Measure stagingMeasure = timings.start( "staging" );
+
+        try
+        {
+            File generationDirectory = prepareGenerationDirectory( workDirectory );
+
+            compiler =
+                CapnpCompiler.builder()
+                    .setOutputDirectory( set.getOutputDirectory() )
+                    .setSchemaDirectory( set.getSchemaDirectory() )
+                    .setWorkDirectory( workDirectory )
+                    .setCapnpFile( capnpFile )
+                    .setCapnpcJavaFile( capnpcJavaFile )
+                    .setCapnpJavaSchemaFile( capnpJavaSchemaFile )
+                    .addSchemas( staleSchemas )
+                    .addImportDirectories( set.getImportDirectories() )
+                    .setVerbose( verbose )
+                    .setLog( getLog() )
+                    .setBuildContext( ( buildContext instanceof DefaultBuildContext ) ? null : buildContext )
+                    .setParallelism( getParallelism() )
+                    .setBatchSize( batchSize )
+                    .setSchemaTimeout( schemaTimeout )
+                    .setTotalTimeout( compileTimeout )
+                    .setStagingMode( schemaStaging )
+                    .setSchemaFileExtension( schemaFileExtension )
+                    .setGenerationDirectory( preserveUnchangedOutputs ? generationDirectory : null )
+                    .setRequestDirectory(
+                        cacheCodeGeneratorRequests ? new File( workDirectory, REQUEST_DIRECTORY_NAME ) : null )
+                    .addGenerators( getGenerators() )
+                    .setSchemaFingerprints( getSchemaFingerprints( set, staleSchemas, manifest ) )
+                    .setTimings( timings )
+                    .setExecutor( compilerPool )
+                    .build();
+        }
+        finally
+        {
+            stagingMeasure.close();
+        }
+
+        List<Batch> batches;
+
+        Timings.Measure compilationMeasure = timings.start( "compilation" );
+
+        try
+        {
+            batches = compiler.compile();
+        }
+        finally
+        {
+            compilationMeasure.close();
+        }
+
+        Timings.Measure publicationMeasure = timings.start( "publication" );
+
+        try
+        {
+            storeOutputs( sourcesCache, sourceKeys, batches );
+            refreshOutputs( set, batches, manifest, previousManifest );
+            recordRequests( set, batches, manifest );
+            storeManifest( set, manifest, previousManifest );
+        }
+        finally
+        {
+            publicationMeasure.close();
+        }
+    }
+
+    /**
+     * Logs a summary of timings and writes the timing report.
+     */
+    protected void writeTimings()
+    {
+        getLog().info( "capnp timings: " + timings.getSummary() );
+
+        try
+        {
+            timings.write( timingReport, mavenProject.getId() + ":" + mojoExecution.getExecutionId() );
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "Unable to write timing report: " + timingReport, e );
+        }
+    }
+
+    /**
+     * Restores outputs of schemas found in sources cache.
+     *
+     * @return schemas not found, which remain to be compiled.
+     */
+    private Collection<String> restoreOutputs(
+            SchemaSet set,
+            SourcesCache sourcesCache,
+            Map<String, String> sourceKeys,
+            Collection<String> schemas,
+            SchemaManifest manifest )
+        throws MojoExecutionException
+    {
+        if ( sourcesCache == null )
+        {
+            return schemas;
+        }
+
+        OutputSynchronizer synchronizer = new OutputSynchronizer( set.getOutputDirectory() );
+        List<String> missingSchemas = Lists.newArrayList();
+        int changedFileCount = 0;
+
+        List<Generator> generators = getGenerators();
+
+        // entries are not evicted while being copied
+        try
+        {
+            DirectoryLock lock = sourcesCache.lock();
+
+            try
+            {
+                for ( String schema : schemas )
+                {
+                    String key = sourceKeys.get( schema );
+                    File entryDirectory = sourcesCache.get( key );
+                    List<File> generatorEntryDirectories = Lists.newArrayList();
+
+                    for ( int i = 0; i < generators.size() && entryDirectory != null; i++ )
+                    {
+                        File generatorEntryDirectory = sourcesCache.get( getGeneratorSourceKey( key, i ) );
+
+                        if ( generatorEntryDirectory == null )
+                        {
+                            entryDirectory = null;
+                        }
+
+                        generatorEntryDirectories.add( generatorEntryDirectory );
+                    }
+
+                    if ( entryDirectory == null )
+                    {
+                        missingSchemas.add( schema );
+
+                        continue;
+                    }
+
+                    try
+                    {
+                        OutputSynchronizer.Result result = synchronizer.copy( entryDirectory );
+
+                        for ( File changedFile : result.getChangedFiles() )
+                        {
+                            buildContext.refresh( changedFile );
+                            changedFileCount++;
+                        }
+
+                        for ( int i = 0; i < generators.size(); i++ )
+                        {
+                            changedFileCount +=
+                                refresh(
+                                    new OutputSynchronizer( generators.get( i ).getOutputDirectory() )
+                                        .copy( generatorEntryDirectories.get( i ) ) );
+                        }
+
+                        manifest.setOutputs( new File( set.getSchemaDirectory(), schema ), result.getGeneratedFiles() );
+                    }
+                    catch ( IOException e )
+                    {
+                        throw new MojoExecutionException(
+                            "Unable to restore outputs from sources cache: " + entryDirectory, e );
+                    }
+                }
+            }
+            finally
+            {
+                lock.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to lock sources cache: " + sourcesCacheDirectory, e );
+        }
+
+        if ( missingSchemas.size() < schemas.size() )
+        {
+            getLog().info(
+                ( schemas.size() - missingSchemas.size() ) + " schema(s) restored from sources cache, "
+                    + changedFileCount + " generated file(s) changed." );
+        }
+
+        return missingSchemas;
+    }
+
+    /**
+     * Stores outputs of schemas compiled alone in sources cache, then evicts least recently used entries. Failures
+     * only disable caching: compiled outputs are already in place.
+     */
+    private void storeOutputs( SourcesCache sourcesCache, Map<String, String> sourceKeys, List<Batch> batches )
+    {
+        if ( sourcesCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            int generatorCount = getGenerators().size();
+
+            for ( Batch batch : batches )
+            {
+                if ( batch.getSchemas().size() == 1 )
+                {
+                    String key = sourceKeys.get( batch.getSchemas().get( 0 ) );
+
+                    for ( int i = 0; i < generatorCount; i++ )
+                    {
+                        sourcesCache.put( getGeneratorSourceKey( key, i ), batch.getGeneratorOutputDirectory( i ) );
+                    }
+
+                    sourcesCache.put( key, batch.getOutputDirectory() );
+                }
+            }
+
+            sourcesCache.evict();
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "Unable to update sources cache: " + sourcesCacheDirectory, e );
+        }
+    }
+
+    /**
+     * Publishes generated sources to output directory and notifies build context of changed files. When unchanged
+     * outputs are preserved, only files whose content changed are written, generated files are recorded per schema in
+     * the manifest, and outputs of schemas that no longer exist are deleted.
+     */
+    private void refreshOutputs(
+            SchemaSet set,
+            List<Batch> batches,
+            SchemaManifest manifest,
+            SchemaManifest previousManifest )
+        throws MojoExecutionException
+    {
+        if ( !preserveUnchangedOutputs )
+        {
+            buildContext.refresh( set.getOutputDirectory() );
+
+            return;
+        }
+
+        OutputSynchronizer synchronizer = new OutputSynchronizer( set.getOutputDirectory() );
+        int changedFileCount = 0;
+
+        try
+        {
+            for ( Batch batch : batches )
+            {
+                OutputSynchronizer.Result result = synchronizer.synchronize( batch.getOutputDirectory() );
+
+                for ( File changedFile : result.getChangedFiles() )
+                {
+                    buildContext.refresh( changedFile );
+                    changedFileCount++;
+                }
+
+                for ( String schema : batch.getSchemas() )
+                {
+                    manifest.setOutputs( new File( set.getSchemaDirectory(), schema ), result.getGeneratedFiles() );
+                }
+
+                List<Generator> generators = getGenerators();
+
+                for ( int i = 0; i < generators.size(); i++ )
+                {
+                    changedFileCount +=
+                        refresh(
+                            new OutputSynchronizer( generators.get( i ).getOutputDirectory() )
+                                .synchronize( batch.getGeneratorOutputDirectory( i ) ) );
+                }
+            }
+
+            manifest.inheritOutputs( previousManifest );
+
+            List<File> deletedFiles = synchronizer.delete( manifest.getStaleOutputs( previousManifest ) );
+
+            for ( File deletedFile : deletedFiles )
+            {
+                buildContext.refresh( deletedFile );
+            }
+
+            if ( !deletedFiles.isEmpty() )
+            {
+                getLog().info( deletedFiles.size() + " stale generated file(s) deleted." );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to update output directory: " + set.getOutputDirectory(), e );
+        }
+
+        getLog().info( changedFileCount + " generated file(s) changed." );
+    }
+
+    /**
+     * Notifies build context of files changed by a synchronization.
+     *
+     * @return number of changed files.
+     */
+    private int refresh( OutputSynchronizer.Result result )
+    {
+        for ( File changedFile : result.getChangedFiles() )
+        {
+            buildContext.refresh( changedFile );
+        }
+
+        return result.getChangedFiles().size();
+    }
+
+    /**
+     * Deletes outputs of schemas that no longer exist, when no schema needs to be compiled.
+     */
+    private void pruneOutputs( SchemaSet set, SchemaManifest manifest, SchemaManifest previousManifest )
+        throws MojoExecutionException
+    {
+        if ( previousManifest == null )
+        {
+            return;
+        }
+
+        manifest.inheritOutputs( previousManifest );
+
+        if ( !preserveUnchangedOutputs )
+        {
+            return;
+        }
+
+        try
+        {
+            List<File> deletedFiles =
+                new OutputSynchronizer( set.getOutputDirectory() )
+                    .delete( manifest.getStaleOutputs( previousManifest ) );
+
+            for ( File deletedFile : deletedFiles )
+            {
+                buildContext.refresh( deletedFile );
+            }
+
+            if ( !deletedFiles.isEmpty() )
+            {
+                getLog().info( deletedFiles.size() + " stale generated file(s) deleted." );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to prune output directory: " + set.getOutputDirectory(), e );
+        }
+    }
+
+    private File prepareGenerationDirectory( File workDirectory )
+        throws MojoExecutionException
+    {
+        File generationDirectory = new File( workDirectory, GENERATION_DIRECTORY_NAME );
+
+        try
+        {
+            FileUtils.deleteDirectory( generationDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to clean generation directory: " + generationDirectory, e );
+        }
+
+        return generationDirectory;
+    }
+
+    private SchemaManifest loadManifest( File manifestFile )
+    {
+        if ( !incremental )
+        {
+            return null;
+        }
+
+        try
+        {
+            return SchemaManifest.load( manifestFile );
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "Ignoring unreadable schema manifest: " + manifestFile, e );
+
+            return null;
+        }
+    }
+
+    /**
+     * Fingerprints schemas and the files they import, scanning only files that changed since previous manifest.
+     */
+    private SchemaManifest createManifest(
+            SchemaSet set,
+            Collection<String> schemas,
+            SchemaManifest previousManifest,
+            Set<File> changedFiles )
+        throws MojoExecutionException
+    {
+        SchemaManifest manifest = new SchemaManifest( getConfigurationFingerprint( set ) );
+
+        if ( !incremental )
+        {
+            return manifest;
+        }
+
+        List<File> importPath = Lists.newArrayList( set.getImportDirectories() );
+        importPath.add( set.getSchemaDirectory() );
+
+        ImportScanner scanner = new ImportScanner( importPath );
+
+        try
+        {
+            for ( String schema : schemas )
+            {
+                manifest.addSchema(
+                    new File( set.getSchemaDirectory(), schema ),
+                    previousManifest,
+                    scanner,
+                    changedFiles );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to compute schema fingerprints.", e );
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Returns files of schema and import directories changed or deleted since last build, as reported by an
+     * incremental build context, such as the one of an IDE.
+     */
+    private Set<File> getChangedFiles( SchemaSet set )
+    {
+        List<File> roots = Lists.newArrayList( set.getImportDirectories() );
+        roots.add( set.getSchemaDirectory() );
+
+        Set<File> changedFiles = Sets.newHashSet();
+
+        for ( File root : roots )
+        {
+            if ( !buildContext.hasDelta( root ) )
+            {
+                continue;
+            }
+
+            addFiles( changedFiles, root, buildContext.newScanner( root ) );
+            addFiles( changedFiles, root, buildContext.newDeleteScanner( root ) );
+        }
+
+        return changedFiles;
+    }
+
+    private void addFiles( Set<File> files, File root, Scanner scanner )
+    {
+        scanner.scan();
+
+        for ( String path : scanner.getIncludedFiles() )
+        {
+            files.add( new File( root, path ).getAbsoluteFile().toPath().normalize().toFile() );
+        }
+    }
+
+    private Collection<String> getStaleSchemas(
+            SchemaSet set,
+            Collection<String> schemas,
+            SchemaManifest manifest,
+            SchemaManifest previousManifest )
+    {
+        if ( !incremental || !set.getOutputDirectory().isDirectory() )
+        {
+            return schemas;
+        }
+
+        Set<String> staleFiles = manifest.getStaleFiles( previousManifest );
+        Set<String> schemasWithMissingOutputs =
+            ( previousManifest == null )
+                ? Collections.<String> emptySet()
+                : previousManifest.getSchemasWithMissingOutputs( set.getOutputDirectory() );
+        List<String> staleSchemas = Lists.newArrayList();
+
+        for ( String schema : schemas )
+        {
+            File schemaFile = new File( set.getSchemaDirectory(), schema );
+
+            if ( manifest.isStale( schemaFile, staleFiles )
+                || manifest.isStale( schemaFile, schemasWithMissingOutputs ) )
+            {
+                staleSchemas.add( schema );
+            }
+        }
+
+        if ( previousManifest != null )
+        {
+            getLog().info(
+                staleSchemas.size() + " of " + schemas.size()
+                    + " schema(s) changed, depend on changed imports or lost outputs since last execution." );
+        }
+
+        return staleSchemas;
+    }
+
+    /**
+     * Records in the manifest the keys of code generator requests kept for compiled batches.
+     */
+    private void recordRequests( SchemaSet set, List<Batch> batches, SchemaManifest manifest )
+    {
+        for ( Batch batch : batches )
+        {
+            if ( batch.getRequestKey() == null )
+            {
+                continue;
+            }
+
+            for ( String schema : batch.getSchemas() )
+            {
+                manifest.setRequest( new File( set.getSchemaDirectory(), schema ), batch.getRequestKey() );
+            }
+        }
+    }
+
+    /**
+     * Stores the manifest of a set, then deletes code generator requests it no longer references, so requests of
+     * previous schema versions do not accumulate in <code>workDirectory</code>.
+     */
+    private void storeManifest( SchemaSet set, SchemaManifest manifest, SchemaManifest previousManifest )
+    {
+        if ( !incremental )
+        {
+            return;
+        }
+
+        File manifestFile = new File( set.getWorkDirectory(), MANIFEST_FILE_NAME );
+
+        manifest.inheritRequests( previousManifest );
+
+        try
+        {
+            manifest.store( manifestFile );
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "Unable to store schema manifest: " + manifestFile, e );
+
+            manifestFile.delete();
+
+            return;
+        }
+
+        pruneRequests( new File( set.getWorkDirectory(), REQUEST_DIRECTORY_NAME ), manifest.getRequests() );
+    }
+
+    private void pruneRequests( File requestDirectory, Set<String> requestKeys )
+    {
+        File[] requests = requestDirectory.listFiles();
+
+        if ( requests == null )
+        {
+            return;
+        }
+
+        for ( File request : requests )
+        {
+            String name = request.getName();
+
+            if ( !( name.endsWith( REQUEST_FILE_EXTENSION )
+                && requestKeys.contains( name.substring( 0, name.length() - REQUEST_FILE_EXTENSION.length() ) ) ) )
+            {
+                request.delete();
+            }
+        }
+    }
+
+    /**
+     * Fingerprints everything but schema contents that influences generated sources: natives, directories, platform,
+     * compiler flags and generators. Natives handled by the plugin are identified by the configured version and
+     * classifier, which avoids resolving them when every schema is up to date; other natives, like generators, are
+     * identified by the content of their files.
+     */
+    private String getConfigurationFingerprint( SchemaSet set )
+        throws MojoExecutionException
+    {
+        List<String> values = Lists.newArrayList(
+                String.valueOf( handleNativeDependency ),
+                nativeDependencyVersion,
+                nativeDependencyClassifier,
+                JavaPlatform.getCurrentOs().name(),
+                JavaPlatform.getCurrentArch(),
+                set.getOutputDirectory().getAbsolutePath(),
+                set.getSchemaDirectory().getAbsolutePath(),
+                schemaStaging.name(),
+                String.valueOf( verbose ),
+                String.valueOf( cacheCodeGeneratorRequests ) );
+
+        if ( !handleNativeDependency )
+        {
+            values.add( getNativesFingerprint() );
+        }
+
+        for ( File importDirectory : set.getImportDirectories() )
+        {
+            values.add( importDirectory.getAbsolutePath() );
+        }
+
+        for ( Generator generator : getGenerators() )
+        {
+            values.add( generator.toString() );
+            values.add( hash( generator.getExecutable() ) );
+        }
+
+        return Hashing.sha1().hashString( Joiner.on( '\n' ).join( values ), Charsets.UTF_8 ).toString();
+    }
+
+    /**
+     * Fingerprints the content of natives of current platform, once for all schema sets and, in a watch, for all
+     * compilations.
+     */
+    private synchronized String getNativesFingerprint()
+        throws MojoExecutionException
+    {
+        if ( nativesFingerprint == null )
+        {
+            prepareNatives();
+
+            nativesFingerprint =
+                Joiner.on( ':' ).join( hash( capnpFile ), hash( capnpcJavaFile ), hash( capnpJavaSchemaFile ) );
+        }
+
+        return nativesFingerprint;
+    }
+
+    /**
+     * Resolves, registers and extracts natives of current platform, once for all schema sets and, in a watch, for all
+     * compilations.
+     */
+    private synchronized void prepareNatives()
+        throws MojoExecutionException
+    {
+        if ( capnpFile != null )
+        {
+            return;
+        }
+
+        if ( handleNativeDependency )
+        {
+            doHandleNativesDependency();
+        }
+
+        NativesInfo currentNativesInfo;
+
+        Timings.Measure nativesRegistrationMeasure = timings.start( "natives-registration" );
+
+        try
+        {
+            currentNativesInfo = getNativesManager().getNativesInfoForCurrentPlatform();
+        }
+        finally
+        {
+            nativesRegistrationMeasure.close();
+        }
+
+        workDirectory.mkdirs();
+
+        Timings.Measure nativesExtractionMeasure = timings.start( "natives-extraction" );
+
+        try
+        {
+            capnpcJavaFile = getNatives( currentNativesInfo.getCapnpcJavaUrl() );
+            capnpJavaSchemaFile = getNatives( currentNativesInfo.getCapnpJavaSchemaUrl() );
+            capnpFile = getNatives( currentNativesInfo.getCapnpUrl() );
+        }
+        finally
+        {
+            nativesExtractionMeasure.close();
+        }
+    }
+
+    private void doHandleNativesDependency()
+        throws MojoExecutionException
+    {
+        String classifier;
+
+        if ( nativeDependencyClassifier.equals( AUTO_CLASSIFIER_DEFAULT ) )
+        {
+            classifier = getPlatformClassifier();
+        }
+        else
+        {
+            classifier = nativeDependencyClassifier;
+        }
+
+        Timings.Measure nativesResolutionMeasure = timings.start( "natives-resolution" );
+
+        try
+        {
+            nativesUrls.add( resolveNatives( classifier ) );
+        }
+        finally
+        {
+            nativesResolutionMeasure.close();
+        }
+
+        nativesClassifier = classifier;
+    }
+
+    /**
+     * Returns the natives manager shared by all executions of the session using the same natives. Descriptors are
+     * registered, or indexed in lazy mode, once by the first execution needing them. Lazy mode requires managed
+     * natives, unmanaged natives being only reachable through the plugin class loader.
+     */
+    private NativesManager getNativesManager()
+    {
+        String sessionKey = SESSION_KEY_PREFIX + "nativesManager:" + nativesUrls;
+        SessionData sessionData = repositorySession.getData();
+
+        NativesManager nativesManager = (NativesManager) sessionData.get( sessionKey );
+
+        if ( nativesManager == null )
+        {
+            NativesManager newNativesManager = new NativesManager();
+
+            for ( URL url : nativesUrls )
+            {
+                newNativesManager.addResourceUrl( url );
+            }
+
+            nativesManager =
+                sessionData.set( sessionKey, null, newNativesManager )
+                    ? newNativesManager
+                    : (NativesManager) sessionData.get( sessionKey );
+        }
+
+        if ( lazyNativesRegistration && !nativesUrls.isEmpty() )
+        {
+            nativesManager.indexAllDescriptors();
+        }
+        else
+        {
+            nativesManager.registerAllDescriptors();
+        }
+
+        return nativesManager;
+    }
+
+    /**
+     * Returns the natives classifier of current platform. It is resolved once per session and, when natives cache is
+     * used, persisted per natives version so later builds do not resolve the natives index at all.
+     */
+    protected String getPlatformClassifier()
+        throws MojoExecutionException
+    {
+        return getPlatformClassifier( null );
+    }
+
+    /**
+     * Returns the natives classifier of current platform, as {@link #getPlatformClassifier()} does, looking it up in
+     * an already resolved natives index when it must be resolved.
+     *
+     * @param nativesIndex the natives index, or <code>null</code> to resolve it if needed.
+     */
+    protected String getPlatformClassifier( Table<String, String, String> nativesIndex )
+        throws MojoExecutionException
+    {
+        String sessionKey = SESSION_KEY_PREFIX + "classifier:" + nativeDependencyVersion;
+        String classifier = (String) repositorySession.getData().get( sessionKey );
+
+        if ( classifier != null )
+        {
+            return classifier;
+        }
+
+        File classifiersFile =
+            new File( cacheDirectory, "natives/" + nativeDependencyVersion + "/classifiers.properties" );
+        String platformKey = JavaPlatform.getCurrentOs() + "." + JavaPlatform.getCurrentArch();
+
+        Properties classifiers = new Properties();
+
+        if ( useNativesCache )
+        {
+            loadProperties( classifiers, classifiersFile );
+
+            classifier = classifiers.getProperty( platformKey );
+        }
+
+        if ( classifier == null )
+        {
+            classifier = resolvePlatformClassifier( ( nativesIndex == null ) ? resolveNativesIndex() : nativesIndex );
+
+            if ( useNativesCache )
+            {
+                classifiers.setProperty( platformKey, classifier );
+
+                storeProperties( classifiers, classifiersFile );
+            }
+        }
+
+        repositorySession.getData().set( sessionKey, classifier );
+
+        return classifier;
+    }
+
+    private String resolvePlatformClassifier( Table<String, String, String> nativesIndex )
+        throws MojoExecutionException
+    {
+        String classifier =
+            nativesIndex
+                .get(
+                    JavaPlatform.getCurrentOs().toString(),
+                    getCanonicalArchitecture( JavaPlatform.getCurrentArch() ) );
+
+        if ( classifier == null )
+        {
+            throw new MojoExecutionException(
+                "No natives available for current platform: "
+                    + JavaPlatform.getCurrentOs() + " " + JavaPlatform.getCurrentArch() );
+        }
+
+        return classifier;
+    }
+
+    /**
+     * Resolves the natives index, mapping operating systems and architectures to natives classifiers.
+     */
+    protected Table<String, String, String> resolveNativesIndex()
+        throws MojoExecutionException
+    {
+        Table<String, String, String> indexTable = HashBasedTable.create();
+
+        URL indexUrl;
+
+        Timings.Measure nativesIndexResolutionMeasure = timings.start( "natives-index-resolution" );
+
+        try
+        {
+            indexUrl = resolve( createNativesIndexArtifact() );
+        }
+        finally
+        {
+            nativesIndexResolutionMeasure.close();
+        }
+
+        Timings.Measure nativesIndexParsingMeasure = timings.start( "natives-index-parsing" );
+
+        try
+        {
+            XMLConfiguration index = new XMLConfiguration();
+
+            index.load( indexUrl );
+
+            for ( HierarchicalConfiguration indexEntry : index.configurationsAt( "entry" ) )
+            {
+                String osName = indexEntry.getString( "os-name" );
+                String archNames = indexEntry.getString( "arch-names" );
+                String mavenClassifier = indexEntry.getString( "maven-classifier" );
+
+                for ( String archName : Splitter.on( ',' ).omitEmptyStrings().trimResults().split( archNames ) )
+                {
+                    indexTable
+                        .put(
+                            osName.toUpperCase(),
+                            getCanonicalArchitecture( archName ),
+                            mavenClassifier );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            throw new NativesManagerException( e );
+        }
+        finally
+        {
+            nativesIndexParsingMeasure.close();
+        }
+
+        return indexTable;
+    }
+
+    /**
+     * Resolves the natives jar, once per session and classifier.
+     */
+    protected URL resolveNatives( String classifier )
+        throws MojoExecutionException
+    {
+        String sessionKey = SESSION_KEY_PREFIX + "natives:" + nativeDependencyVersion + ":" + classifier;
+        URL url = (URL) repositorySession.getData().get( sessionKey );
+
+        if ( url == null )
+        {
+            url = resolve( createNativesArtifact( classifier ) );
+
+            repositorySession.getData().set( sessionKey, url );
+        }
+
+        return url;
+    }
+
+    private void loadProperties( Properties properties, File file )
+    {
+        if ( !file.isFile() )
+        {
+            return;
+        }
+
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( file ) ) )
+        {
+            properties.load( in );
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "Ignoring unreadable file: " + file, e );
+        }
+    }
+
+    private void storeProperties( Properties properties, File file )
+    {
+        try
+        {
+            file.getParentFile().mkdirs();
+
+            File tempFile = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+
+            try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( tempFile ) ) )
+            {
+                properties.store( out, null );
+            }
+
+            java.nio.file.Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "Unable to store file: " + file, e );
+        }
+    }
+
+    private Artifact createNativesArtifact( String classifier )
+        throws MojoExecutionException
+    {
+        return new DefaultArtifact(
+                    NATIVES_GROUP_ID,
+                    NATIVES_ARTIFACT_ID,
+                    classifier,
+                    "jar",
+                    nativeDependencyVersion );
+    }
+
+    private Artifact createNativesIndexArtifact()
+    {
+        return new DefaultArtifact(
+                    NATIVES_GROUP_ID,
+                    NATIVES_ARTIFACT_ID,
+                    NATIVES_INDEX_CLASSIFIER,
+                    "xml",
+                    nativeDependencyVersion );
+    }
+
+    private URL resolve( Artifact artifact )
+        throws MojoExecutionException
+    {
+        try
+        {
+            return resolveFile( artifact ).toURI().toURL();
+        }
+        catch ( MalformedURLException e )
+        {
+            throw new MojoExecutionException( "Cannot resolve artifact: " + artifact, e );
+        }
+    }
+
+    private File resolveFile( Artifact artifact )
+        throws MojoExecutionException
+    {
+        ArtifactRequest request = new ArtifactRequest( artifact, remoteRepository, null );
+
+        try
+        {
+            return repositorySystem.resolveArtifact( repositorySession, request ).getArtifact().getFile();
+        }
+        catch ( ArtifactResolutionException e )
+        {
+            throw new MojoExecutionException( "Cannot resolve artifact: " + artifact, e );
+        }
+    }
+
+    /**
+     * Returns directories of schemas extracted from project dependencies with classifier <code>schemas</code>, then
+     * from <code>importArtifacts</code>. Each artifact is resolved and extracted once per session, and shared by all
+     * modules of the reactor.
+     */
+    private List<File> resolveImportArtifacts()
+        throws MojoExecutionException
+    {
+        Set<File> directories = Sets.newLinkedHashSet();
+
+        Timings.Measure importArtifactsMeasure = timings.start( "import-artifacts" );
+
+        try
+        {
+            for ( org.apache.maven.artifact.Artifact dependency : mavenProject.getArtifacts() )
+            {
+                if ( ImportArtifact.DEFAULT_CLASSIFIER.equals( dependency.getClassifier() )
+                    && dependency.getFile() != null )
+                {
+                    directories.add(
+                        getImportDirectory(
+                            new DefaultArtifact(
+                                    dependency.getGroupId(),
+                                    dependency.getArtifactId(),
+                                    dependency.getClassifier(),
+                                    dependency.getArtifactHandler().getExtension(),
+                                    dependency.getVersion() ),
+                            dependency.getFile() ) );
+                }
+            }
+
+            if ( importArtifacts != null )
+            {
+                for ( ImportArtifact importArtifact : importArtifacts )
+                {
+                    directories.add( resolveImportArtifact( importArtifact ) );
+                }
+            }
+        }
+        finally
+        {
+            importArtifactsMeasure.close();
+        }
+
+        return Lists.newArrayList( directories );
+    }
+
+    private File resolveImportArtifact( ImportArtifact importArtifact )
+        throws MojoExecutionException
+    {
+        if ( importArtifact.getGroupId() == null || importArtifact.getArtifactId() == null )
+        {
+            throw new MojoExecutionException( "groupId and artifactId are required for import artifact." );
+        }
+
+        Artifact artifact =
+            new DefaultArtifact(
+                    importArtifact.getGroupId(),
+                    importArtifact.getArtifactId(),
+                    importArtifact.getClassifier(),
+                    "jar",
+                    getImportArtifactVersion( importArtifact ) );
+
+        return getImportDirectory( artifact, null );
+    }
+
+    /**
+     * Returns the directory of schemas of an artifact, extracting them into the schemas cache once per session.
+     *
+     * @param file file of the artifact, or <code>null</code> to resolve it.
+     */
+    private File getImportDirectory( Artifact artifact, File file )
+        throws MojoExecutionException
+    {
+        String sessionKey = SESSION_KEY_PREFIX + "schemas:" + artifact;
+        File directory = (File) repositorySession.getData().get( sessionKey );
+
+        if ( directory == null )
+        {
+            if ( file == null )
+            {
+                file = resolveFile( artifact );
+            }
+
+            if ( file.isDirectory() )
+            {
+                directory = file;
+            }
+            else
+            {
+                try
+                {
+                    directory =
+                        new SchemasCache( new File( cacheDirectory, "schemas" ) )
+                            .get( file, artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion() );
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( "Unable to extract schemas of artifact: " + artifact, e );
+                }
+            }
+
+            getLog().debug( "Importing schemas of " + artifact + " from " + directory );
+
+            repositorySession.getData().set( sessionKey, directory );
+        }
+
+        return directory;
+    }
+
+    /**
+     * Returns the version of an import artifact, defaulting to the version of the matching dependency, or managed
+     * dependency, of the project.
+     */
+    private String getImportArtifactVersion( ImportArtifact importArtifact )
+        throws MojoExecutionException
+    {
+        if ( importArtifact.getVersion() != null )
+        {
+            return importArtifact.getVersion();
+        }
+
+        List<Dependency> dependencies = Lists.newArrayList( mavenProject.getDependencies() );
+
+        if ( mavenProject.getDependencyManagement() != null )
+        {
+            dependencies.addAll( mavenProject.getDependencyManagement().getDependencies() );
+        }
+
+        for ( Dependency dependency : dependencies )
+        {
+            if ( dependency.getGroupId().equals( importArtifact.getGroupId() )
+                && dependency.getArtifactId().equals( importArtifact.getArtifactId() ) )
+            {
+                return dependency.getVersion();
+            }
+        }
+
+        throw new MojoExecutionException(
+            "No version given for import artifact, nor found in project dependencies: " + importArtifact );
+    }
+
+    private Collection<String> getSchemas( SchemaSet set )
+        throws MojoExecutionException
+    {
+        if ( set.getSchemas() == null )
+        {
+            return getAllSchemas( set );
+        }
+
+        return set.getSchemas();
+    }
+
+    private Collection<String> getAllSchemas( SchemaSet set )
+        throws MojoExecutionException
+    {
+        SchemaFinder finder =
+            new SchemaFinder(
+                    set.getSchemaDirectory(),
+                    schemaFileExtension,
+                    set.getIncludes(),
+                    set.getExcludes() );
+
+        try
+        {
+            return parallelSchemaDiscovery ? finder.find( getParallelism() ) : finder.find();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException(
+                "Unable to find schemas in schema directory: " + set.getSchemaDirectory(), e );
+        }
+    }
+
+    private List<Generator> getGenerators()
+    {
+        if ( generators == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return Arrays.asList( generators );
+    }
+
+    private SourcesCache getSourcesCache()
+    {
+        if ( sourcesCacheDirectory == null || !incremental || !preserveUnchangedOutputs || !handleNativeDependency )
+        {
+            return null;
+        }
+
+        return new SourcesCache( sourcesCacheDirectory, sourcesCacheMaxSize * 1024 * 1024 );
+    }
+
+    /**
+     * Computes the sources cache key of each schema. Keys cover the compiler flags and the generators, identified by
+     * the content of their executable and their output directory relative to the project. Keys do not depend on
+     * other directories, so identical schemas of different checkouts share entries.
+     */
+    private Map<String, String> getSourceKeys(
+            SchemaSet set,
+            SourcesCache sourcesCache,
+            Collection<String> schemas,
+            SchemaManifest manifest )
+        throws MojoExecutionException
+    {
+        Map<String, String> keys = Maps.newHashMap();
+
+        if ( sourcesCache == null )
+        {
+            return keys;
+        }
+
+        List<String> configuration = Lists.newArrayList(
+                SOURCES_CACHE_FORMAT_VERSION,
+                nativeDependencyVersion,
+                nativeDependencyClassifier,
+                JavaPlatform.getCurrentOs().name(),
+                JavaPlatform.getCurrentArch(),
+                String.valueOf( verbose ),
+                String.valueOf( cacheCodeGeneratorRequests ) );
+
+        Path basePath = mavenProject.getBasedir().toPath();
+
+        for ( Generator generator : getGenerators() )
+        {
+            configuration.add( hash( generator.getExecutable() ) );
+
+            Path outputPath = generator.getOutputDirectory().toPath();
+
+            configuration.add(
+                outputPath.startsWith( basePath )
+                    ? basePath.relativize( outputPath ).toString()
+                    : outputPath.toString() );
+        }
+
+        for ( String schema : schemas )
+        {
+            List<String> values = Lists.newArrayList( configuration );
+            values.add( schema );
+            values.add( manifest.getContentFingerprint( new File( set.getSchemaDirectory(), schema ) ) );
+
+            keys.put(
+                schema,
+                Hashing.sha1().hashString( Joiner.on( '\n' ).join( values ), Charsets.UTF_8 ).toString() );
+        }
+
+        return keys;
+    }
+
+    /**
+     * Returns a fingerprint of the sources last generated for a schema set, taken from its stored manifest. Like
+     * sources cache keys, it does not depend on where the project is located.
+     *
+     * @return the fingerprint, or <code>null</code> if generated sources are not recorded by a manifest, as when
+     *         <code>incremental</code> is disabled or natives are not handled by the plugin.
+     */
+    protected String getGenerationFingerprint( SchemaSet set )
+    {
+        if ( !incremental || !handleNativeDependency )
+        {
+            return null;
+        }
+
+        File manifestFile = new File( set.getWorkDirectory(), MANIFEST_FILE_NAME );
+        SchemaManifest manifest = loadManifest( manifestFile );
+
+        if ( manifest == null )
+        {
+            return null;
+        }
+
+        List<String> values = Lists.newArrayList(
+                SOURCES_CACHE_FORMAT_VERSION,
+                nativeDependencyVersion,
+                nativeDependencyClassifier,
+                manifest.getGenerationFingerprint( set.getSchemaDirectory() ) );
+
+        return Hashing.sha1().hashString( Joiner.on( '\n' ).join( values ), Charsets.UTF_8 ).toString();
+    }
+
+    private static String getGeneratorSourceKey( String key, int index )
+    {
+        return key + "-generator-" + index;
+    }
+
+    /**
+     * Returns the sha1 of the content of a file, or <code>none</code> if there is no file.
+     */
+    private static String hash( File file )
+        throws MojoExecutionException
+    {
+        if ( file == null )
+        {
+            return "none";
+        }
+
+        try
+        {
+            return com.google.common.io.Files.hash( file, Hashing.sha1() ).toString();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to read executable: " + file, e );
+        }
+    }
+
+    private Map<String, String> getSchemaFingerprints(
+            SchemaSet set,
+            Collection<String> schemas,
+            SchemaManifest manifest )
+    {
+        if ( !incremental )
+        {
+            return null;
+        }
+
+        Map<String, String> fingerprints = Maps.newHashMap();
+
+        for ( String schema : schemas )
+        {
+            fingerprints.put( schema, manifest.getFingerprint( new File( set.getSchemaDirectory(), schema ) ) );
+        }
+
+        return fingerprints;
+    }
+
+    protected int getParallelism()
+    {
+        if ( parallelism < 1 )
+        {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        return parallelism;
+    }
+
+    protected String getNativeDependencyVersion()
+    {
+        return nativeDependencyVersion;
+    }
+
+    protected File getNativesCacheDirectory()
+    {
+        return new File( cacheDirectory, "natives" );
+    }
+
+    protected MavenProject getProject()
+    {
+        return mavenProject;
+    }
+
+    protected File getWorkDirectory()
+    {
+        return workDirectory;
+    }
+
+    protected String getSchemaFileExtension()
+    {
+        return schemaFileExtension;
+    }
+
+    /**
+     * Returns the schema set of <code>schemaDirectory</code>, followed by additional <code>schemaSets</code>.
+     */
+    protected List<SchemaSet> getSchemaSets()
+        throws MojoExecutionException
+    {
+        List<SchemaSet> sets =
+            Lists.newArrayList(
+                new SchemaSet(
+                        schemaDirectory,
+                        outputDirectory,
+                        importDirectories,
+                        schemas,
+                        includes,
+                        excludes,
+                        workDirectory ) );
+
+        if ( schemaSets == null )
+        {
+            return sets;
+        }
+
+        for ( int i = 0; i < schemaSets.length; i++ )
+        {
+            SchemaSet set = schemaSets[i];
+
+            if ( set.getSchemaDirectory() == null || set.getOutputDirectory() == null )
+            {
+                throw new MojoExecutionException(
+                    "schemaDirectory and outputDirectory are required for schema set " + i + "." );
+            }
+
+            if ( set.getWorkDirectory() == null )
+            {
+                set.setWorkDirectory( new File( workDirectory, SCHEMA_SETS_DIRECTORY_NAME + "/" + i ) );
+            }
+
+            sets.add( set );
+        }
+
+        return sets;
+    }
+
+    private File getNatives( URL source )
+        throws MojoExecutionException
+    {
+        if ( !useNativesCache )
+        {
+            return copyResource( source, workDirectory );
+        }
+
+        NativesCache nativesCache = new NativesCache( getNativesCacheDirectory() );
+
+        try
+        {
+            return nativesCache.get( source, nativeDependencyVersion, nativesClassifier );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to extract natives to cache directory: " + cacheDirectory, e );
+        }
+    }
+
+    private File copyResource( URL source, File target )
+        throws MojoExecutionException
+    {
+        try
+        {
+            String fileName = new File( source.getPath() ).getName();
+            File targetFile = new File( target, fileName );
+            File tempFile = File.createTempFile( fileName, ".tmp", target );
+
+            try
+            {
+                try (
+                    InputStream in = new BufferedInputStream( openStream( source ) );
+                    OutputStream out = new BufferedOutputStream( new FileOutputStream( tempFile ) );
+                )
+                {
+                    ByteStreams.copy( in, out );
+                }
+
+                tempFile.setExecutable( true );
+
+                replace( tempFile, targetFile );
+
+                return targetFile;
+            }
+            finally
+            {
+                tempFile.delete();
+            }
+        }
+        catch ( Exception e )
+        {
+            throw new MojoExecutionException( "Unable to copy natives to work directory: " + workDirectory, e );
+        }
+    }
+
+    /**
+     * Atomically replaces natives by a new copy, so a process running them, possibly of another execution, never sees
+     * a partially written executable. Natives still running may not be replaced on some platforms, which only matters
+     * if their content differs.
+     */
+    private static void replace( File source, File target )
+        throws IOException
+    {
+        try
+        {
+            java.nio.file.Files.move(
+                source.toPath(),
+                target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException e )
+        {
+            if ( !target.isFile() || !com.google.common.io.Files.equal( source, target ) )
+            {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Opens a resource without caching, so no jar file is left open.
+     */
+    private static InputStream openStream( URL source )
+        throws IOException
+    {
+        URLConnection connection = source.openConnection();
+        connection.setUseCaches( false );
+
+        return connection.getInputStream();
     }
 }
@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.expretio.maven.plugins.capnp.util.NativesCache;
+import org.expretio.maven.plugins.capnp.util.NativesManager;
+import org.expretio.maven.plugins.capnp.util.NativesManager.NativesInfo;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Resolves natives jars of all classifiers of the natives index, or of selected classifiers, in parallel, and extracts
+ * them into the natives cache. The natives classifier of current platform is also remembered there, so later builds
+ * resolve nothing remotely and may run offline.
+ */
+@Mojo(
+    name = "prefetch",
+    threadSafe = true,
+    requiresProject = true,
+    requiresOnline = false
+)
+public class CapnProtoPrefetchMojo
+    extends CapnProtoMojo
+{
+    /**
+     * Natives classifiers to prefetch, also settable with the <code>capnp.prefetchClassifiers</code> property. If none,
+     * all classifiers of the natives index are prefetched.
+     */
+    @Parameter( property = "capnp.prefetchClassifiers" )
+    private String[] prefetchClassifiers;
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        final Set<String> classifiers = Sets.newTreeSet();
+        Table<String, String, String> nativesIndex = null;
+
+        if ( prefetchClassifiers == null || prefetchClassifiers.length == 0 )
+        {
+            nativesIndex = resolveNativesIndex();
+
+            classifiers.addAll( nativesIndex.values() );
+        }
+        else
+        {
+            classifiers.addAll( Lists.newArrayList( prefetchClassifiers ) );
+        }
+
+        ExecutorService executor =
+            Executors.newFixedThreadPool(
+                    Math.max( 1, Math.min( getParallelism(), classifiers.size() ) ),
+                    new ThreadFactoryBuilder().setNameFormat( "capnp-prefetch-%d" ).setDaemon( true ).build() );
+
+        try
+        {
+            List<Future<Integer>> futures = Lists.newArrayList();
+
+            for ( final String classifier : classifiers )
+            {
+                futures.add(
+                    executor.submit(
+                        new Callable<Integer>()
+                        {
+                            @Override
+                            public Integer call()
+                                throws MojoExecutionException, IOException
+                            {
+                                return prefetch( classifier );
+                            }
+                        } ) );
+            }
+
+            int fileCount = 0;
+
+            for ( Future<Integer> future : futures )
+            {
+                fileCount += future.get();
+            }
+
+            getLog().info(
+                "Prefetched natives of " + classifiers.size() + " classifier(s), " + fileCount
+                    + " file(s) in natives cache." );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new MojoExecutionException(
+                "Unable to prefetch natives: " + e.getCause().getMessage(), e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new MojoExecutionException( "Interrupted while prefetching natives.", e );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        getLog().info( "Natives classifier of current platform: " + getPlatformClassifier( nativesIndex ) );
+    }
+
+    // [ Utility methods ]
+
+    /**
+     * Resolves natives jar of a classifier and extracts natives of all platforms it holds.
+     *
+     * @return number of natives files.
+     */
+    private int prefetch( String classifier )
+        throws MojoExecutionException, IOException
+    {
+        URL url = resolveNatives( classifier );
+
+        NativesManager nativesManager = new NativesManager();
+        nativesManager.addResourceUrl( url );
+        nativesManager.indexAllDescriptors();
+
+        NativesCache nativesCache = new NativesCache( getNativesCacheDirectory() );
+        int fileCount = 0;
+
+        for ( NativesInfo natives : nativesManager.getAllNativesInfo() )
+        {
+            for ( URL resource : Lists.newArrayList(
+                    natives.getCapnpUrl(),
+                    natives.getCapnpcJavaUrl(),
+                    natives.getCapnpJavaSchemaUrl() ) )
+            {
+                if ( resource != null )
+                {
+                    nativesCache.get( resource, getNativeDependencyVersion(), classifier );
+                    fileCount++;
+                }
+            }
+        }
+
+        getLog().debug( "Prefetched natives " + classifier + " from " + url );
+
+        return fileCount;
+    }
+}
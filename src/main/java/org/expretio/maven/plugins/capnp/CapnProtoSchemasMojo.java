@@ -0,0 +1,165 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProjectHelper;
+import org.codehaus.plexus.util.FileUtils;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Packages schemas of main schema sets into a jar attached to the project, so other projects import them through
+ * <code>importArtifacts</code> instead of copying them. Schemas are stored relative to their schema directory, as
+ * imported, with fixed entry times: unchanged schemas give an identical jar, whose extracted schemas stay cached by
+ * consumers.
+ */
+@Mojo(
+    name = "package-schemas",
+    defaultPhase = LifecyclePhase.PACKAGE,
+    threadSafe = true,
+    requiresProject = true,
+    requiresOnline = false
+)
+public class CapnProtoSchemasMojo
+    extends CapnProtoMojo
+{
+    // 1980-01-01, earliest time of zip entries
+    private static final long ENTRY_TIME = 315532800000L;
+
+    @Component
+    private MavenProjectHelper projectHelper;
+
+    /**
+     * Jar of packaged schemas.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/${project.build.finalName}-schemas.jar", required = true )
+    private File schemasJar;
+
+    /**
+     * Classifier of the attached schemas jar.
+     */
+    @Parameter( defaultValue = ImportArtifact.DEFAULT_CLASSIFIER, required = true )
+    private String schemasClassifier;
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        Map<String, File> files = Maps.newTreeMap();
+
+        for ( SchemaSet set : getSchemaSets() )
+        {
+            if ( set.isTestSources() || !set.getSchemaDirectory().isDirectory() )
+            {
+                continue;
+            }
+
+            try
+            {
+                for ( String path : FileUtils.getFileNames(
+                        set.getSchemaDirectory(), "**/*." + getSchemaFileExtension(), null, false ) )
+                {
+                    String name = path.replace( File.separatorChar, '/' );
+
+                    if ( !files.containsKey( name ) )
+                    {
+                        files.put( name, new File( set.getSchemaDirectory(), path ) );
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Unable to list schemas of: " + set.getSchemaDirectory(), e );
+            }
+        }
+
+        if ( files.isEmpty() )
+        {
+            getLog().info( "No schema to package." );
+
+            return;
+        }
+
+        try
+        {
+            write( files );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to write schemas jar: " + schemasJar, e );
+        }
+
+        projectHelper.attachArtifact( getProject(), "jar", schemasClassifier, schemasJar );
+
+        getLog().info( "Packaged " + files.size() + " schema(s) into " + schemasJar );
+    }
+
+    // [ Utility methods ]
+
+    private void write( Map<String, File> files )
+        throws IOException
+    {
+        schemasJar.getParentFile().mkdirs();
+
+        Path tempFile = Files.createTempFile( schemasJar.getParentFile().toPath(), schemasJar.getName(), ".tmp" );
+
+        try
+        {
+            try ( JarOutputStream out =
+                new JarOutputStream( new BufferedOutputStream( Files.newOutputStream( tempFile ) ) ) )
+            {
+                for ( Map.Entry<String, File> file : files.entrySet() )
+                {
+                    JarEntry entry = new JarEntry( file.getKey() );
+                    entry.setTime( ENTRY_TIME );
+
+                    out.putNextEntry( entry );
+                    Files.copy( file.getValue().toPath(), out );
+                    out.closeEntry();
+                }
+            }
+
+            Files.move( tempFile, schemasJar.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally
+        {
+            Files.deleteIfExists( tempFile );
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Compiles schemas, then watches schema and import directories of all schema sets and recompiles schemas affected by
+ * each change, until interrupted. Schema sets are prepared once, and natives and compiler configuration stay resident
+ * between compilations, which are incremental as long as <code>incremental</code> is enabled. Timings are started
+ * afresh for each compilation, whose timing report replaces the previous one.
+ */
+@Mojo(
+    name = "watch",
+    threadSafe = true,
+    requiresProject = true,
+    requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME,
+    requiresOnline = false
+)
+public class CapnProtoWatchMojo
+    extends CapnProtoMojo
+{
+    /**
+     * Quiet period, in milliseconds, awaited after a change before compiling, so that a burst of changes, such as a
+     * save of several files or a checkout, triggers a single compilation.
+     */
+    @Parameter( defaultValue = "200" )
+    private long watchDebounce;
+
+    /**
+     * Maximum time, in seconds, to watch schemas, after which the goal ends. Zero means watching until interrupted.
+     */
+    @Parameter( defaultValue = "0" )
+    private long watchTimeout;
+
+    private final Map<WatchKey, Path> watchedDirectories = Maps.newHashMap();
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        startTimings();
+
+        List<SchemaSet> sets = prepareSchemaSets();
+
+        compileQuietly( sets );
+
+        try ( WatchService watchService = FileSystems.getDefault().newWatchService() )
+        {
+            Set<File> roots = getWatchedRoots( sets );
+
+            for ( File directory : roots )
+            {
+                register( watchService, directory.toPath() );
+            }
+
+            getLog().info( "Watching " + roots + " for schema changes." );
+
+            long deadline = ( watchTimeout > 0 ) ? System.nanoTime() + TimeUnit.SECONDS.toNanos( watchTimeout ) : 0;
+
+            while ( true )
+            {
+                WatchKey firstKey = take( watchService, deadline );
+
+                if ( firstKey == null )
+                {
+                    getLog().info( "Stopped watching schemas after " + watchTimeout + " seconds." );
+
+                    return;
+                }
+
+                boolean changed = handleEvents( watchService, firstKey );
+
+                WatchKey key;
+
+                while ( ( key = watchService.poll( watchDebounce, TimeUnit.MILLISECONDS ) ) != null )
+                {
+                    changed |= handleEvents( watchService, key );
+                }
+
+                if ( changed )
+                {
+                    startTimings();
+                    compileQuietly( sets );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to watch schemas.", e );
+        }
+    }
+
+    /**
+     * Compiles changed schemas of prepared sets, then writes timings of the compilation. Failures are only logged, the
+     * watch going on until schemas are fixed.
+     */
+    private void compileQuietly( List<SchemaSet> sets )
+    {
+        try
+        {
+            compile( sets );
+        }
+        catch ( MojoExecutionException | MojoFailureException e )
+        {
+            getLog().error( e.getMessage() );
+        }
+        catch ( RuntimeException e )
+        {
+            getLog().error( "Unable to compile schemas.", e );
+        }
+        finally
+        {
+            writeTimings();
+        }
+    }
+
+    /**
+     * Waits for a key to be signalled.
+     *
+     * @param deadline time, in nanoseconds, at which to stop waiting, or zero to wait forever.
+     * @return the key, or <code>null</code> if the deadline passed.
+     */
+    private static WatchKey take( WatchService watchService, long deadline )
+        throws InterruptedException
+    {
+        if ( deadline == 0 )
+        {
+            return watchService.take();
+        }
+
+        long remaining = deadline - System.nanoTime();
+
+        return ( remaining > 0 ) ? watchService.poll( remaining, TimeUnit.NANOSECONDS ) : null;
+    }
+
+    private Set<File> getWatchedRoots( List<SchemaSet> sets )
+    {
+        Set<File> roots = Sets.newLinkedHashSet();
+
+        for ( SchemaSet set : sets )
+        {
+            roots.add( set.getSchemaDirectory() );
+            roots.addAll( set.getImportDirectories() );
+        }
+
+        return roots;
+    }
+
+    /**
+     * Registers a directory and its subdirectories, a watch service not watching subdirectories by itself.
+     */
+    private void register( final WatchService watchService, Path root )
+        throws IOException
+    {
+        if ( !Files.isDirectory( root ) )
+        {
+            return;
+        }
+
+        Files.walkFileTree( root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs )
+                throws IOException
+            {
+                watchedDirectories.put( dir.register( watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY ), dir );
+
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    /**
+     * Handles events of a key, registering created directories.
+     *
+     * @return true if a schema, or a directory possibly holding schemas, changed.
+     */
+    private boolean handleEvents( WatchService watchService, WatchKey key )
+        throws IOException
+    {
+        Path directory = watchedDirectories.get( key );
+        boolean changed = false;
+
+        for ( WatchEvent<?> event : key.pollEvents() )
+        {
+            if ( event.kind() == OVERFLOW )
+            {
+                changed = true;
+
+                continue;
+            }
+
+            Path path = directory.resolve( (Path) event.context() );
+
+            if ( event.kind() == ENTRY_CREATE && Files.isDirectory( path ) )
+            {
+                register( watchService, path );
+
+                changed = true;
+            }
+            else if ( path.getFileName().toString().endsWith( "." + getSchemaFileExtension() )
+                || ( event.kind() == ENTRY_DELETE && watchedDirectories.containsValue( path ) ) )
+            {
+                changed = true;
+            }
+        }
+
+        if ( !key.reset() )
+        {
+            watchedDirectories.remove( key );
+        }
+
+        return changed;
+    }
+}
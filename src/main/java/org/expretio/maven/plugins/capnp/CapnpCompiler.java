@@ -24,13 +24,39 @@ package org.expretio.maven.plugins.capnp;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.codehaus.plexus.util.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.expretio.maven.plugins.capnp.util.JavaPlatform.Os;
+import org.expretio.maven.plugins.capnp.util.ProcessOutput;
+import org.expretio.maven.plugins.capnp.util.Processes;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Implements a java adapter of capnproto compiler, creating java classes from schema definitions.
@@ -39,67 +65,733 @@ import org.codehaus.plexus.util.FileUtils;
  */
 public class CapnpCompiler
 {
+    /**
+     * Conservative command line length limit: Windows allows 32767 characters, while most unix systems allow much more
+     * than 128 KiB for arguments and environment combined.
+     */
+    public static final int DEFAULT_MAX_COMMAND_LENGTH =
+            ( Os.getCurrentOs() == Os.WINDOWS ) ? 32000 : 128 * 1024;
+
+    /**
+     * Maximum number of output lines kept per batch.
+     */
+    private static final int MAX_OUTPUT_LINES = 1000;
+
+    /**
+     * Time given to output streams of a killed process to be closed.
+     */
+    private static final long KILLED_OUTPUT_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Diagnostic of capnp, such as <code>foo.capnp:12:3-8: error: Parse error.</code>, where position is optional.
+     */
+    static final Pattern DIAGNOSTIC_PATTERN =
+            Pattern.compile( "^(.+?):(?:(\\d+):(\\d+)(?:-\\d+)?:)? (error|warning): (.*)$" );
+
     public static Builder builder()
     {
         return new Builder();
     }
 
     private final Command command;
+    private final Log log;
+    private final BuildContext buildContext;
+    private final Timings timings;
     private final List<String> schemas;
     private final boolean verbose;
+    private final int parallelism;
+    private final int batchSize;
+    private final int maxCommandLength;
+    private final File generationDirectory;
+    private final File requestDirectory;
+    private final List<Generator> generators;
+    private final Map<String, String> schemaFingerprints;
+    private final long schemaTimeout;
+    private final long totalTimeout;
+    private final ExecutorService executor;
+
+    private final Map<Process, String> runningProcesses = new ConcurrentHashMap<>();
+    private ScheduledExecutorService watchdog;
+    private long totalDeadline;
 
     /**
      * Constructor.
      */
-    private CapnpCompiler( Command command, List<String> schemas, boolean verbose )
+    private CapnpCompiler( Command command, Builder builder )
     {
         this.command = command;
-        this.schemas = schemas;
-        this.verbose = verbose;
+        this.log = builder.log;
+        this.buildContext = builder.buildContext;
+        this.timings = builder.timings;
+        this.schemas = builder.schemas;
+        this.verbose = builder.verbose;
+        this.parallelism = builder.parallelism;
+        this.batchSize = builder.batchSize;
+        this.maxCommandLength = builder.maxCommandLength;
+        this.generationDirectory = builder.generationDirectory;
+        this.requestDirectory = builder.requestDirectory;
+        this.generators = builder.generators;
+        this.schemaFingerprints = builder.schemaFingerprints;
+        this.schemaTimeout = builder.schemaTimeout;
+        this.totalTimeout = builder.totalTimeout;
+        this.executor = builder.executor;
     }
 
-    public void compile()
+    /**
+     * Compiles all schemas. Schemas are grouped in batches, each batch being compiled by a single capnp invocation.
+     * When parallelism is greater than one, batches are dispatched to a bounded pool of capnp processes and every
+     * failure is reported, not only the first one.
+     * <p>
+     * Processes exceeding the schema or total timeout, or still running when the build is interrupted or the JVM
+     * exits, are killed along with their descendants.
+     *
+     * @return compiled batches, telling where the sources of each batch were generated.
+     */
+    public List<Batch> compile()
         throws MojoExecutionException
     {
-        for ( String schema : schemas )
+        List<Batch> batches = partition();
+
+        totalDeadline = deadline( System.nanoTime(), totalTimeout );
+
+        if ( schemaTimeout > 0 || totalTimeout > 0 )
+        {
+            watchdog =
+                Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat( "capnp-watchdog-%d" ).setDaemon( true ).build() );
+        }
+
+        Thread shutdownHook =
+            new Thread( "capnp-shutdown" )
+            {
+                @Override
+                public void run()
+                {
+                    destroyRunningProcesses();
+                }
+            };
+
+        Runtime.getRuntime().addShutdownHook( shutdownHook );
+
+        try
+        {
+            compile( batches );
+        }
+        finally
         {
-            compile( schema );
+            if ( watchdog != null )
+            {
+                watchdog.shutdownNow();
+            }
+
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook( shutdownHook );
+            }
+            catch ( IllegalStateException e )
+            {
+                // JVM is shutting down, hook is running
+            }
         }
+
+        return batches;
     }
 
     // [ Utility methods ]
 
-    private void compile( String schema )
+    private void compile( List<Batch> batches )
         throws MojoExecutionException
     {
+        int poolSize = Math.min( parallelism, batches.size() );
+
+        if ( poolSize <= 1 && this.executor == null )
+        {
+            for ( Batch batch : batches )
+            {
+                compile( batch );
+            }
+
+            return;
+        }
+
+        ExecutorService executor =
+            ( this.executor != null )
+                ? this.executor
+                : Executors.newFixedThreadPool(
+                        poolSize,
+                        new ThreadFactoryBuilder().setNameFormat( "capnp-compiler-%d" ).setDaemon( true ).build() );
+
+        List<Future<Void>> futures = new ArrayList<>();
+
         try
         {
-            ProcessBuilder processBuilder =
-                    new ProcessBuilder( command.get( schema ) )
-                        .directory( command.workDirectory );
+            for ( final Batch batch : batches )
+            {
+                futures.add(
+                    executor.submit(
+                        new Callable<Void>()
+                        {
+                            @Override
+                            public Void call()
+                                throws MojoExecutionException
+                            {
+                                compile( batch );
 
-            if ( verbose )
+                                return null;
+                            }
+                        } ) );
+            }
+
+            waitFor( futures );
+        }
+        finally
+        {
+            if ( executor != this.executor )
+            {
+                executor.shutdownNow();
+            }
+            else
+            {
+                for ( Future<Void> future : futures )
+                {
+                    future.cancel( true );
+                }
+            }
+        }
+    }
+
+    /**
+     * Kills processes still running, reporting which schemas they were compiling.
+     */
+    private void destroyRunningProcesses()
+    {
+        for ( Map.Entry<Process, String> entry : runningProcesses.entrySet() )
+        {
+            log.warn( "Killing capnp process still compiling " + entry.getValue() );
+
+            Processes.destroyTree( entry.getKey() );
+        }
+    }
+
+    /**
+     * Groups schemas in batches bounded by batch size and maximum command line length. Batches are also kept small
+     * enough for every worker of the pool to receive some.
+     */
+    List<Batch> partition()
+    {
+        int maxSize = ( batchSize > 0 ) ? batchSize : schemas.size();
+        maxSize = Math.min( maxSize, ( schemas.size() + parallelism - 1 ) / parallelism );
+
+        File longestOutputDirectory =
+            ( generationDirectory == null )
+                ? command.outputDirectory
+                : new File( generationDirectory, String.valueOf( Integer.MAX_VALUE ) );
+
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        int length = command.length( longestOutputDirectory );
+
+        for ( String schema : schemas )
+        {
+            int schemaLength = schema.length() + 1;
+
+            if ( !batch.isEmpty() && ( batch.size() >= maxSize || length + schemaLength > maxCommandLength ) )
+            {
+                batches.add( batch );
+                batch = new ArrayList<>();
+                length = command.length( longestOutputDirectory );
+            }
+
+            batch.add( schema );
+            length += schemaLength;
+        }
+
+        if ( !batch.isEmpty() )
+        {
+            batches.add( batch );
+        }
+
+        List<Batch> result = new ArrayList<>();
+
+        for ( List<String> batchSchemas : batches )
+        {
+            File batchOutputDirectory =
+                ( generationDirectory == null )
+                    ? command.outputDirectory
+                    : new File( generationDirectory, String.valueOf( result.size() ) );
+
+            result.add( new Batch( batchSchemas, batchOutputDirectory ) );
+        }
+
+        return result;
+    }
+
+    private void waitFor( List<Future<Void>> futures )
+        throws MojoExecutionException
+    {
+        List<Throwable> failures = new ArrayList<>();
+
+        for ( Future<Void> future : futures )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( ExecutionException e )
+            {
+                failures.add( e.getCause() );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+
+                destroyRunningProcesses();
+
+                throw new MojoExecutionException( "Interrupted while compiling schemas.", e );
+            }
+        }
+
+        if ( failures.isEmpty() )
+        {
+            return;
+        }
+
+        if ( failures.size() == 1 && failures.get( 0 ) instanceof MojoExecutionException )
+        {
+            throw (MojoExecutionException) failures.get( 0 );
+        }
+
+        StringBuilder message = new StringBuilder( failures.size() + " schema compilation(s) failed:" );
+
+        for ( Throwable failure : failures )
+        {
+            message.append( "\n  " ).append( failure.getMessage() );
+        }
+
+        MojoExecutionException exception = new MojoExecutionException( message.toString(), failures.get( 0 ) );
+
+        for ( Throwable failure : failures.subList( 1, failures.size() ) )
+        {
+            exception.addSuppressed( failure );
+        }
+
+        throw exception;
+    }
+
+    /**
+     * Compiles a batch. Output of its processes is collected and logged as a single block once the batch is done,
+     * so output of concurrent batches does not interleave. Unless verbose, output is only logged on failure.
+     */
+    private void compile( Batch batch )
+        throws MojoExecutionException
+    {
+        String schema = Joiner.on( ", " ).join( batch.schemas );
+        ProcessOutput output = new ProcessOutput( MAX_OUTPUT_LINES );
+        boolean succeeded = false;
+
+        long now = System.nanoTime();
+
+        if ( totalDeadline != Long.MAX_VALUE && now - totalDeadline >= 0 )
+        {
+            throw new MojoExecutionException(
+                "Total compilation timeout of " + totalTimeout + "s exceeded before compiling " + schema );
+        }
+
+        long deadline = earliest( deadline( now, schemaTimeout ), totalDeadline );
+        long start = System.nanoTime();
+
+        batch.outputDirectory.mkdirs();
+
+        removeMessages( batch );
+
+        try
+        {
+            if ( requestDirectory == null )
+            {
+                run( new ProcessBuilder( command.get( batch ) ), schema, output, deadline );
+            }
+            else
+            {
+                generate( batch, schema, output, deadline );
+            }
+
+            succeeded = true;
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Cannot compile schema " + schema + ".", e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new MojoExecutionException( "Interrupted while compiling schema " + schema + ".", e );
+        }
+        finally
+        {
+            timings.addSchema( command.schemaDirectory, schema, System.nanoTime() - start );
+
+            report( schema, output, succeeded );
+            addMessages( output );
+        }
+    }
+
+    private void generate( Batch batch, String schema, ProcessOutput output, long deadline )
+        throws IOException, InterruptedException, MojoExecutionException
+    {
+        String requestKey = getRequestKey( batch );
+        File request = parse( batch, requestKey, schema, output, deadline );
+
+        batch.requestKey = requestKey;
+
+        try
+        {
+            run(
+                newGeneratorProcess( command.capnpcJavaFile, batch.outputDirectory, request ),
+                schema,
+                output,
+                deadline );
+
+            for ( int i = 0; i < generators.size(); i++ )
+            {
+                File generatorOutputDirectory =
+                    ( generationDirectory == null )
+                        ? generators.get( i ).getOutputDirectory()
+                        : batch.getGeneratorOutputDirectory( i );
+
+                generatorOutputDirectory.mkdirs();
+
+                run(
+                    newGeneratorProcess( generators.get( i ).getExecutable(), generatorOutputDirectory, request ),
+                    schema,
+                    output,
+                    deadline );
+            }
+        }
+        finally
+        {
+            if ( requestKey == null )
+            {
+                request.delete();
+            }
+        }
+    }
+
+    private void report( String schema, ProcessOutput output, boolean succeeded )
+    {
+        List<String> lines = output.getLines();
+
+        if ( lines.isEmpty() )
+        {
+            return;
+        }
+
+        String message = "capnp output for " + schema + ":\n  " + Joiner.on( "\n  " ).join( lines );
+
+        if ( !succeeded )
+        {
+            log.error( message );
+        }
+        else if ( verbose )
+        {
+            log.info( message );
+        }
+    }
+
+    private void removeMessages( Batch batch )
+    {
+        if ( buildContext == null )
+        {
+            return;
+        }
+
+        synchronized ( buildContext )
+        {
+            for ( String schema : batch.schemas )
+            {
+                buildContext.removeMessages( new File( command.schemaDirectory, schema ) );
+            }
+        }
+    }
+
+    /**
+     * Attaches errors and warnings found in capnp output to the files they refer to, so an IDE may show them.
+     */
+    private void addMessages( ProcessOutput output )
+    {
+        if ( buildContext == null )
+        {
+            return;
+        }
+
+        for ( String line : output.getLines() )
+        {
+            Matcher matcher = DIAGNOSTIC_PATTERN.matcher( line );
+
+            if ( !matcher.matches() )
+            {
+                continue;
+            }
+
+            File file = command.getSourceFile( matcher.group( 1 ) );
+
+            if ( !file.isFile() )
+            {
+                continue;
+            }
+
+            int lineNumber = ( matcher.group( 2 ) == null ) ? 0 : Integer.parseInt( matcher.group( 2 ) );
+            int column = ( matcher.group( 3 ) == null ) ? 0 : Integer.parseInt( matcher.group( 3 ) );
+            int severity =
+                matcher.group( 4 ).equals( "error" ) ? BuildContext.SEVERITY_ERROR : BuildContext.SEVERITY_WARNING;
+
+            synchronized ( buildContext )
+            {
+                buildContext.addMessage( file, lineNumber, column, matcher.group( 5 ), severity, null );
+            }
+        }
+    }
+
+    /**
+     * Parses schemas of a batch into a code generator request. A request previously parsed from the same schemas,
+     * imports and command line is reused.
+     *
+     * @param requestKey key of the request, <code>null</code> for a request not to be reused.
+     * @return the code generator request file.
+     */
+    private File parse( Batch batch, String requestKey, String schema, ProcessOutput output, long deadline )
+        throws IOException, InterruptedException, MojoExecutionException
+    {
+        requestDirectory.mkdirs();
+
+        File request = ( requestKey == null ) ? null : new File( requestDirectory, requestKey + ".bin" );
+
+        if ( request != null && request.isFile() )
+        {
+            return request;
+        }
+
+        File tempFile = File.createTempFile( "request", ".tmp", requestDirectory );
+
+        ProcessBuilder processBuilder = new ProcessBuilder( command.getParse( batch ) ).redirectOutput( tempFile );
+
+        try
+        {
+            run( processBuilder, schema, output, deadline );
+        }
+        catch ( MojoExecutionException e )
+        {
+            tempFile.delete();
+
+            throw e;
+        }
+
+        if ( request == null )
+        {
+            return tempFile;
+        }
+
+        java.nio.file.Files.move( tempFile.toPath(), request.toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+        return request;
+    }
+
+    /**
+     * Returns a key identifying the code generator request of a batch, or <code>null</code> if a schema has no known
+     * fingerprint.
+     */
+    private String getRequestKey( Batch batch )
+    {
+        if ( schemaFingerprints == null )
+        {
+            return null;
+        }
+
+        Hasher hasher = Hashing.sha1().newHasher();
+
+        for ( String argument : command.getParse( batch ) )
+        {
+            hasher.putString( argument, Charsets.UTF_8 ).putByte( (byte) 0 );
+        }
+
+        for ( String schema : batch.schemas )
+        {
+            String fingerprint = schemaFingerprints.get( schema );
+
+            if ( fingerprint == null )
             {
-                processBuilder.inheritIO();
+                return null;
             }
 
-            Process process = processBuilder.start();
+            hasher.putString( fingerprint, Charsets.UTF_8 );
+        }
+
+        return hasher.hash().toString();
+    }
+
+    private ProcessBuilder newGeneratorProcess( File executable, File outputDirectory, File request )
+    {
+        return
+            new ProcessBuilder( executable.getAbsolutePath() )
+                .directory( outputDirectory )
+                .redirectInput( request );
+    }
+
+    /**
+     * Runs a process, draining its output. Standard error is merged into standard output unless the latter is
+     * redirected. The process is killed, along with its descendants, when interrupted or when its deadline is reached.
+     *
+     * @param deadline deadline in {@link System#nanoTime()} terms, {@link Long#MAX_VALUE} meaning none.
+     */
+    private void run( ProcessBuilder processBuilder, String schema, ProcessOutput output, long deadline )
+        throws IOException, InterruptedException, MojoExecutionException
+    {
+        if ( processBuilder.directory() == null )
+        {
+            processBuilder.directory( command.baseDirectory );
+        }
+
+        boolean pipedOutput = ( processBuilder.redirectOutput() == ProcessBuilder.Redirect.PIPE );
+
+        processBuilder.redirectErrorStream( pipedOutput );
+
+        final Process process = processBuilder.start();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timeoutTask = null;
+
+        runningProcesses.put( process, schema );
+
+        try
+        {
+            process.getOutputStream().close();
+            output.drain( pipedOutput ? process.getInputStream() : process.getErrorStream() );
+
+            if ( deadline != Long.MAX_VALUE )
+            {
+                timeoutTask =
+                    watchdog.schedule(
+                        new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                timedOut.set( true );
+
+                                Processes.destroyTree( process );
+                            }
+                        },
+                        deadline - System.nanoTime(),
+                        TimeUnit.NANOSECONDS );
+            }
 
             int exit = process.waitFor();
 
+            if ( timedOut.get() )
+            {
+                output.await( KILLED_OUTPUT_TIMEOUT_MILLIS );
+
+                throw new MojoExecutionException( "Timed out while compiling " + schema );
+            }
+
+            output.await();
+
             if ( exit != 0 )
             {
                 throw new MojoExecutionException( "Unexpected exit value ( " + exit + " ) while compiling " + schema );
             }
         }
-        catch ( IOException | InterruptedException e )
+        catch ( InterruptedException e )
         {
-            throw new MojoExecutionException( "Cannot compile schema " + schema + ".", e );
+            Processes.destroyTree( process );
+
+            throw e;
+        }
+        finally
+        {
+            runningProcesses.remove( process );
+
+            if ( timeoutTask != null )
+            {
+                timeoutTask.cancel( false );
+            }
+        }
+    }
+
+    /**
+     * Returns the deadline of a timeout, {@link Long#MAX_VALUE} when there is no timeout.
+     *
+     * @param timeout timeout in seconds, zero meaning none.
+     */
+    private static long deadline( long start, long timeout )
+    {
+        return ( timeout > 0 ) ? start + TimeUnit.SECONDS.toNanos( timeout ) : Long.MAX_VALUE;
+    }
+
+    private static long earliest( long deadline, long otherDeadline )
+    {
+        if ( deadline == Long.MAX_VALUE )
+        {
+            return otherDeadline;
         }
+
+        if ( otherDeadline == Long.MAX_VALUE )
+        {
+            return deadline;
+        }
+
+        return ( deadline - otherDeadline < 0 ) ? deadline : otherDeadline;
     }
 
     // [ Inner classes ]
 
+    /**
+     * Schemas compiled by a single capnp invocation.
+     */
+    public static class Batch
+    {
+        private final List<String> schemas;
+        private final File outputDirectory;
+        private String requestKey;
+
+        private Batch( List<String> schemas, File outputDirectory )
+        {
+            this.schemas = schemas;
+            this.outputDirectory = outputDirectory;
+        }
+
+        public List<String> getSchemas()
+        {
+            return schemas;
+        }
+
+        /**
+         * Returns the directory where java sources of this batch were generated.
+         */
+        public File getOutputDirectory()
+        {
+            return outputDirectory;
+        }
+
+        /**
+         * Returns the directory where a generator writes outputs of this batch, when sources are generated in a
+         * generation directory.
+         *
+         * @param index index of the generator.
+         */
+        public File getGeneratorOutputDirectory( int index )
+        {
+            return new File( outputDirectory.getPath() + "-generator-" + index );
+        }
+
+        /**
+         * Returns the key of the code generator request kept for this batch, or <code>null</code> if none was kept.
+         */
+        public String getRequestKey()
+        {
+            return requestKey;
+        }
+    }
+
     private static class Command
     {
         private final File outputDirectory;
@@ -109,8 +801,12 @@ public class CapnpCompiler
         private final File capnpcJavaFile;
         private final File capnpJavaSchemaFile;
         private List<File> importDirectories;
+        private final StagingMode stagingMode;
+        private final String schemaFileExtension;
+        private final boolean verbose;
 
         private List<String> base = new ArrayList<>();
+        private File baseDirectory;
 
         public Command(
                 File outputDirectory,
@@ -119,7 +815,10 @@ public class CapnpCompiler
                 File capnpFile,
                 File capnpcJavaFile,
                 File capnpJavaSchemaFile,
-                List<File> importDirectories )
+                List<File> importDirectories,
+                StagingMode stagingMode,
+                String schemaFileExtension,
+                boolean verbose )
             throws MojoExecutionException, MojoFailureException
         {
             this.outputDirectory = outputDirectory;
@@ -129,18 +828,50 @@ public class CapnpCompiler
             this.capnpcJavaFile = capnpcJavaFile;
             this.capnpJavaSchemaFile = capnpJavaSchemaFile;
             this.importDirectories = importDirectories;
+            this.stagingMode = stagingMode;
+            this.schemaFileExtension = schemaFileExtension;
+            this.verbose = verbose;
 
             initialize();
         }
 
-        public List<String> get( String schema )
+        /**
+         * Returns the command writing the code generator request of a batch to standard output.
+         */
+        public List<String> getParse( Batch batch )
         {
             List<String> fullCommand = new ArrayList<>( base );
-            fullCommand.add( schema );
+            fullCommand.add( "-o-" );
+            fullCommand.addAll( batch.schemas );
 
             return fullCommand;
         }
 
+        public List<String> get( Batch batch )
+        {
+            List<String> fullCommand = new ArrayList<>( base );
+            fullCommand.add( getOutputOption( batch.outputDirectory ) );
+            fullCommand.addAll( batch.schemas );
+
+            return fullCommand;
+        }
+
+        /**
+         * Returns the length of the command line without any schema, the output directory being at most as long as
+         * given one.
+         */
+        public int length( File longestOutputDirectory )
+        {
+            int length = getOutputOption( longestOutputDirectory ).length() + 1;
+
+            for ( String argument : base )
+            {
+                length += argument.length() + 1;
+            }
+
+            return length;
+        }
+
         private void initialize()
             throws MojoExecutionException
         {
@@ -149,7 +880,8 @@ public class CapnpCompiler
 
             try
             {
-                FileUtils.copyDirectoryStructure( schemaDirectory, workDirectory );
+                baseDirectory =
+                    new SchemaStager( schemaDirectory, workDirectory, schemaFileExtension ).stage( stagingMode );
 
                 importDirectories.add( capnpJavaSchemaFile.getParentFile() );
                 importDirectories.add( schemaDirectory );
@@ -162,13 +894,45 @@ public class CapnpCompiler
             }
         }
 
+        /**
+         * Returns the file a path reported by capnp refers to: paths of staged schemas are mapped back to schema
+         * directory.
+         */
+        public File getSourceFile( String path )
+        {
+            File file = new File( path );
+
+            if ( !file.isAbsolute() )
+            {
+                return new File( schemaDirectory, path );
+            }
+
+            Path basePath = baseDirectory.getAbsoluteFile().toPath().normalize();
+            Path filePath = file.toPath().normalize();
+
+            if ( filePath.startsWith( basePath ) )
+            {
+                return new File( schemaDirectory, basePath.relativize( filePath ).toString() );
+            }
+
+            return file;
+        }
+
+        private String getOutputOption( File directory )
+        {
+            return "-o" + capnpcJavaFile.getAbsolutePath() + ":" + directory.getAbsolutePath();
+        }
+
         private void setBase()
             throws IOException
         {
             base.add( capnpFile.getAbsolutePath() );
             base.add( "compile" );
-            base.add( "--verbose" );
-            base.add( "-o" + capnpcJavaFile.getAbsolutePath() + ":" + outputDirectory.getAbsolutePath() );
+
+            if ( verbose )
+            {
+                base.add( "--verbose" );
+            }
 
             for ( File importDirectory : importDirectories )
             {
@@ -188,6 +952,21 @@ public class CapnpCompiler
         private final List<File> importDirectories = new ArrayList<>();
         private final List<String> schemas = new ArrayList<>();
         private boolean verbose = true;
+        private int parallelism = 1;
+        private int batchSize = 1;
+        private int maxCommandLength = DEFAULT_MAX_COMMAND_LENGTH;
+        private StagingMode stagingMode = StagingMode.COPY;
+        private String schemaFileExtension = "capnp";
+        private File generationDirectory;
+        private File requestDirectory;
+        private final List<Generator> generators = new ArrayList<>();
+        private Map<String, String> schemaFingerprints;
+        private Log log = new SystemStreamLog();
+        private BuildContext buildContext;
+        private long schemaTimeout;
+        private long totalTimeout;
+        private Timings timings = new Timings();
+        private ExecutorService executor;
 
         public CapnpCompiler build()
             throws MojoExecutionException, MojoFailureException
@@ -202,9 +981,12 @@ public class CapnpCompiler
                         capnpFile,
                         capnpcJavaFile,
                         capnpJavaSchemaFile,
-                        importDirectories );
+                        importDirectories,
+                        stagingMode,
+                        schemaFileExtension,
+                        verbose );
 
-            return new CapnpCompiler( command, schemas, verbose );
+            return new CapnpCompiler( command, this );
         }
 
         public Builder setOutputDirectory( File outputDirectory )
@@ -277,6 +1059,10 @@ public class CapnpCompiler
             return this;
         }
 
+        /**
+         * Sets whether capnp runs verbosely and its output is logged. Otherwise, output is only logged when a
+         * compilation fails.
+         */
         public Builder setVerbose( boolean value )
         {
             this.verbose = value;
@@ -284,12 +1070,177 @@ public class CapnpCompiler
             return this;
         }
 
+        /**
+         * Sets the maximum time, in seconds, the compilation of a schema or batch of schemas may take, zero meaning no
+         * limit.
+         */
+        public Builder setSchemaTimeout( long schemaTimeout )
+        {
+            this.schemaTimeout = schemaTimeout;
+
+            return this;
+        }
+
+        /**
+         * Sets the maximum time, in seconds, the compilation of all schemas may take, zero meaning no limit.
+         */
+        public Builder setTotalTimeout( long totalTimeout )
+        {
+            this.totalTimeout = totalTimeout;
+
+            return this;
+        }
+
+        /**
+         * Sets the timings recording compilation time of each schema, or batch of schemas.
+         */
+        public Builder setTimings( Timings timings )
+        {
+            this.timings = timings;
+
+            return this;
+        }
+
+        /**
+         * Sets the log receiving output of capnp processes.
+         */
+        public Builder setLog( Log log )
+        {
+            this.log = log;
+
+            return this;
+        }
+
+        /**
+         * Sets the build context, such as the one of an IDE, receiving errors and warnings reported by capnp for each
+         * schema. Optional.
+         */
+        public Builder setBuildContext( BuildContext buildContext )
+        {
+            this.buildContext = buildContext;
+
+            return this;
+        }
+
+        /**
+         * Sets a pool, shared with other compilers, running capnp processes instead of a pool of this compiler. The
+         * pool bounds the number of processes running concurrently and is not shut down by the compiler.
+         */
+        public Builder setExecutor( ExecutorService executor )
+        {
+            this.executor = executor;
+
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of capnp processes running concurrently.
+         */
+        public Builder setParallelism( int parallelism )
+        {
+            this.parallelism = parallelism;
+
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of schemas compiled by a single capnp invocation, zero meaning no limit other than
+         * the maximum command line length.
+         */
+        public Builder setBatchSize( int batchSize )
+        {
+            this.batchSize = batchSize;
+
+            return this;
+        }
+
+        public Builder setMaxCommandLength( int maxCommandLength )
+        {
+            this.maxCommandLength = maxCommandLength;
+
+            return this;
+        }
+
+        public Builder setStagingMode( StagingMode stagingMode )
+        {
+            this.stagingMode = stagingMode;
+
+            return this;
+        }
+
+        public Builder setSchemaFileExtension( String schemaFileExtension )
+        {
+            this.schemaFileExtension = schemaFileExtension;
+
+            return this;
+        }
+
+        /**
+         * Sets a directory where each batch generates its java sources, in its own subdirectory, instead of output
+         * directory. Generators then also write outputs of each batch in a directory of their own.
+         *
+         * @see Batch#getOutputDirectory()
+         * @see Batch#getGeneratorOutputDirectory(int)
+         */
+        public Builder setGenerationDirectory( File generationDirectory )
+        {
+            this.generationDirectory = generationDirectory;
+
+            return this;
+        }
+
+        /**
+         * Enables two-stage compilation: capnp parses schemas into code generator requests, stored in given directory,
+         * which are then fed to capnpc-java and additional generators.
+         *
+         * @see #addGenerator(Generator)
+         * @see #setSchemaFingerprints(Map)
+         */
+        public Builder setRequestDirectory( File requestDirectory )
+        {
+            this.requestDirectory = requestDirectory;
+
+            return this;
+        }
+
+        /**
+         * Adds a generator plugin fed with the same code generator requests as capnpc-java. Requires a request
+         * directory.
+         */
+        public Builder addGenerator( Generator generator )
+        {
+            generators.add( generator );
+
+            return this;
+        }
+
+        public Builder addGenerators( Collection<Generator> generators )
+        {
+            this.generators.addAll( generators );
+
+            return this;
+        }
+
+        /**
+         * Sets fingerprints of schemas, covering their content and the content of their imports. When every schema of
+         * a batch has a fingerprint, its code generator request is reused by later compilations of the same batch.
+         */
+        public Builder setSchemaFingerprints( Map<String, String> schemaFingerprints )
+        {
+            this.schemaFingerprints = schemaFingerprints;
+
+            return this;
+        }
+
         private void validate()
             throws MojoFailureException
         {
             validate( outputDirectory, "Output directory" );
             validate( schemaDirectory, "Schema base directory" );
             validate( workDirectory, "Working directory" );
+            validate( stagingMode, "Staging mode" );
+            validate( log, "Log" );
+            validate( timings, "Timings" );
 
             validate( capnpFile, "capnpn file" );
             validate( capnpcJavaFile, "capnpnc java file" );
@@ -304,12 +1255,32 @@ public class CapnpCompiler
             {
                 throw new MojoFailureException( "At least one schema file must be specified." );
             }
+
+            if ( parallelism < 1 )
+            {
+                throw new MojoFailureException( "Parallelism must be at least 1." );
+            }
+
+            if ( !generators.isEmpty() && requestDirectory == null )
+            {
+                throw new MojoFailureException( "Additional generators require two-stage compilation." );
+            }
+
+            if ( schemaTimeout < 0 || totalTimeout < 0 )
+            {
+                throw new MojoFailureException( "Timeouts must be positive, or zero for no limit." );
+            }
+
+            if ( batchSize < 0 )
+            {
+                throw new MojoFailureException( "Batch size must be positive, or zero for no limit." );
+            }
         }
 
-        private void validate( File file, String name )
+        private void validate( Object value, String name )
             throws MojoFailureException
         {
-            if ( file == null )
+            if ( value == null )
             {
                 throw new MojoFailureException( name + " is mandatory." );
             }
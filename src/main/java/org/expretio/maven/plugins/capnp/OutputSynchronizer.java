@@ -0,0 +1,224 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Moves generated files into output directory, replacing only files whose content differs. Unchanged files keep their
+ * modification time, so incremental java compilers do not recompile them. Also deletes outputs no longer generated.
+ * Files restored from a cache are copied rather than moved.
+ */
+public class OutputSynchronizer
+{
+    private final Path outputDirectory;
+
+    public OutputSynchronizer( File outputDirectory )
+    {
+        this.outputDirectory = outputDirectory.toPath();
+    }
+
+    /**
+     * Synchronizes output directory with files generated in given directory.
+     */
+    public Result synchronize( File generatedDirectory )
+        throws IOException
+    {
+        return synchronize( generatedDirectory, true );
+    }
+
+    /**
+     * Synchronizes output directory with files of given directory, leaving them in place.
+     */
+    public Result copy( File sourceDirectory )
+        throws IOException
+    {
+        return synchronize( sourceDirectory, false );
+    }
+
+    /**
+     * Deletes files of output directory, along with their parent directories left empty.
+     *
+     * @param paths paths relative to output directory.
+     * @return deleted files.
+     */
+    public List<File> delete( Collection<String> paths )
+        throws IOException
+    {
+        List<File> deletedFiles = new ArrayList<>();
+
+        for ( String path : paths )
+        {
+            Path file = outputDirectory.resolve( path );
+
+            if ( Files.deleteIfExists( file ) )
+            {
+                deletedFiles.add( file.toFile() );
+
+                deleteEmptyParents( file );
+            }
+        }
+
+        return deletedFiles;
+    }
+
+    // [ Utility methods ]
+
+    private Result synchronize( File generatedDirectory, final boolean move )
+        throws IOException
+    {
+        final Path sourceDirectory = generatedDirectory.toPath();
+        final Result result = new Result();
+
+        if ( !Files.isDirectory( sourceDirectory ) )
+        {
+            return result;
+        }
+
+        Files.walkFileTree(
+            sourceDirectory,
+            new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile( Path file, BasicFileAttributes attributes )
+                    throws IOException
+                {
+                    String path = sourceDirectory.relativize( file ).toString().replace( '\\', '/' );
+                    Path target = outputDirectory.resolve( path );
+
+                    result.generatedFiles.add( path );
+
+                    if ( !isSameContent( file, target ) )
+                    {
+                        replace( file, target, move );
+
+                        result.changedFiles.add( target.toFile() );
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            } );
+
+        return result;
+    }
+
+    private void deleteEmptyParents( Path file )
+        throws IOException
+    {
+        for ( Path directory = file.getParent();
+              directory != null && directory.startsWith( outputDirectory ) && !directory.equals( outputDirectory );
+              directory = directory.getParent() )
+        {
+            try ( DirectoryStream<Path> entries = Files.newDirectoryStream( directory ) )
+            {
+                if ( entries.iterator().hasNext() )
+                {
+                    return;
+                }
+            }
+
+            Files.delete( directory );
+        }
+    }
+
+    private static boolean isSameContent( Path source, Path target )
+        throws IOException
+    {
+        return Files.isRegularFile( target ) && com.google.common.io.Files.equal( source.toFile(), target.toFile() );
+    }
+
+    /**
+     * Atomically replaces target by source. When source must be kept, or when both are not on the same file store,
+     * source is first copied next to target.
+     */
+    private static void replace( Path source, Path target, boolean move )
+        throws IOException
+    {
+        Files.createDirectories( target.getParent() );
+
+        if ( move )
+        {
+            try
+            {
+                Files.move( source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+
+                return;
+            }
+            catch ( AtomicMoveNotSupportedException e )
+            {
+                // copied below
+            }
+        }
+
+        Path tempFile = Files.createTempFile( target.getParent(), target.getFileName().toString(), ".tmp" );
+
+        try
+        {
+            Files.copy( source, tempFile, StandardCopyOption.REPLACE_EXISTING );
+            Files.move( tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally
+        {
+            Files.deleteIfExists( tempFile );
+        }
+    }
+
+    // [ Inner classes ]
+
+    /**
+     * Outcome of a synchronization.
+     */
+    public static class Result
+    {
+        private final List<String> generatedFiles = new ArrayList<>();
+        private final List<File> changedFiles = new ArrayList<>();
+
+        /**
+         * Returns paths of all generated files, relative to output directory.
+         */
+        public List<String> getGeneratedFiles()
+        {
+            return generatedFiles;
+        }
+
+        /**
+         * Returns files of output directory that were created or replaced.
+         */
+        public List<File> getChangedFiles()
+        {
+            return changedFiles;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the schemas of a schema directory in a single walk of its tree.
+ * <p>
+ * Schemas are files having the schema file extension, matching an include pattern if any, and no exclude pattern.
+ * Patterns are globs, matched against paths relative to schema directory. A directory matching an exclude pattern is
+ * not walked at all; so is a directory <code>foo</code> excluded by a <code>foo/**</code> pattern.
+ */
+public class SchemaFinder
+{
+    private final Path schemaDirectory;
+    private final String schemaFileSuffix;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final List<PathMatcher> directoryExcludes = new ArrayList<>();
+
+    public SchemaFinder( File schemaDirectory, String schemaFileExtension )
+    {
+        this(
+            schemaDirectory,
+            schemaFileExtension,
+            Collections.<String> emptyList(),
+            Collections.<String> emptyList() );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param includes glob patterns of schemas to include, all schemas being included when empty.
+     * @param excludes glob patterns of schemas and directories to exclude.
+     */
+    public SchemaFinder(
+            File schemaDirectory,
+            String schemaFileExtension,
+            Collection<String> includes,
+            Collection<String> excludes )
+    {
+        this.schemaDirectory = schemaDirectory.toPath();
+        this.schemaFileSuffix = "." + schemaFileExtension;
+
+        FileSystem fileSystem = this.schemaDirectory.getFileSystem();
+
+        for ( String include : includes )
+        {
+            this.includes.add( fileSystem.getPathMatcher( "glob:" + include ) );
+        }
+
+        for ( String exclude : excludes )
+        {
+            this.excludes.add( fileSystem.getPathMatcher( "glob:" + exclude ) );
+
+            if ( exclude.endsWith( "/**" ) )
+            {
+                this.directoryExcludes.add(
+                    fileSystem.getPathMatcher( "glob:" + exclude.substring( 0, exclude.length() - 3 ) ) );
+            }
+        }
+
+        this.directoryExcludes.addAll( this.excludes );
+    }
+
+    /**
+     * Finds all schemas.
+     *
+     * @return sorted paths of schemas, relative to schema directory.
+     */
+    public List<String> find()
+        throws IOException
+    {
+        final List<String> schemas = new ArrayList<>();
+
+        if ( !Files.isDirectory( schemaDirectory ) )
+        {
+            return schemas;
+        }
+
+        Files.walkFileTree(
+            schemaDirectory,
+            EnumSet.of( FileVisitOption.FOLLOW_LINKS ),
+            Integer.MAX_VALUE,
+            new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory( Path directory, BasicFileAttributes attributes )
+                {
+                    return isExcludedDirectory( directory ) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile( Path file, BasicFileAttributes attributes )
+                {
+                    if ( !attributes.isDirectory() && isSchema( file ) )
+                    {
+                        schemas.add( relativize( file ) );
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed( Path file, IOException e )
+                    throws IOException
+                {
+                    // excluded directories are opened by the walk before being skipped
+                    if ( e instanceof FileSystemLoopException || isExcludedDirectory( file ) )
+                    {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    throw e;
+                }
+            } );
+
+        Collections.sort( schemas );
+
+        return schemas;
+    }
+
+    /**
+     * Finds all schemas, walking directories in parallel. Worth it for very large trees, especially on network file
+     * systems.
+     *
+     * @param parallelism maximum number of directories listed concurrently.
+     * @return sorted paths of schemas, relative to schema directory.
+     */
+    public List<String> find( int parallelism )
+        throws IOException
+    {
+        if ( !Files.isDirectory( schemaDirectory ) )
+        {
+            return new ArrayList<>();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool( parallelism );
+        Set<Path> visitedDirectories = Collections.newSetFromMap( new ConcurrentHashMap<Path, Boolean>() );
+
+        try
+        {
+            List<String> schemas = pool.invoke( new DirectoryTask( schemaDirectory, visitedDirectories ) );
+
+            Collections.sort( schemas );
+
+            return schemas;
+        }
+        catch ( DirectoryException e )
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    // [ Utility methods ]
+
+    private boolean isExcludedDirectory( Path directory )
+    {
+        return !directory.equals( schemaDirectory ) && matches( directoryExcludes, directory );
+    }
+
+    private boolean isSchema( Path file )
+    {
+        return file.getFileName().toString().endsWith( schemaFileSuffix )
+            && ( includes.isEmpty() || matches( includes, file ) )
+            && !matches( excludes, file );
+    }
+
+    private boolean matches( List<PathMatcher> matchers, Path path )
+    {
+        Path relativePath = schemaDirectory.relativize( path );
+
+        for ( PathMatcher matcher : matchers )
+        {
+            if ( matcher.matches( relativePath ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private String relativize( Path path )
+    {
+        // capnp native program is not compatible with windows file separator
+        return schemaDirectory.relativize( path ).toString().replace( '\\', '/' );
+    }
+
+    // [ Inner classes ]
+
+    /**
+     * Lists a directory, forking a task for each subdirectory. Like the sequential walk, links are followed, each
+     * directory being listed once.
+     */
+    private class DirectoryTask
+        extends RecursiveTask<List<String>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final Set<Path> visitedDirectories;
+
+        public DirectoryTask( Path directory, Set<Path> visitedDirectories )
+        {
+            this.directory = directory;
+            this.visitedDirectories = visitedDirectories;
+        }
+
+        @Override
+        protected List<String> compute()
+        {
+            List<String> schemas = new ArrayList<>();
+            List<DirectoryTask> subtasks = new ArrayList<>();
+
+            try ( DirectoryStream<Path> entries = Files.newDirectoryStream( directory ) )
+            {
+                if ( !visitedDirectories.add( directory.toRealPath() ) )
+                {
+                    return schemas;
+                }
+
+                for ( Path entry : entries )
+                {
+                    if ( Files.isDirectory( entry ) )
+                    {
+                        if ( !isExcludedDirectory( entry ) )
+                        {
+                            DirectoryTask subtask = new DirectoryTask( entry, visitedDirectories );
+                            subtask.fork();
+                            subtasks.add( subtask );
+                        }
+                    }
+                    else if ( isSchema( entry ) )
+                    {
+                        schemas.add( relativize( entry ) );
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new DirectoryException( e );
+            }
+
+            for ( DirectoryTask subtask : subtasks )
+            {
+                schemas.addAll( subtask.join() );
+            }
+
+            return schemas;
+        }
+    }
+
+    /**
+     * Carries an I/O failure out of a directory task.
+     */
+    private static class DirectoryException
+        extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public DirectoryException( IOException cause )
+        {
+            super( cause );
+        }
+
+        @Override
+        public synchronized IOException getCause()
+        {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,678 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.expretio.maven.plugins.capnp.util.ImportScanner;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Records the fingerprints of compiled schemas and of their imports, allowing later executions to compile only
+ * schemas that changed or that depend, directly or transitively, on a changed file.
+ * <p>
+ * A manifest holds a configuration fingerprint, covering everything but the schemas themselves that influences the
+ * generated sources, and an entry for each schema or imported file: its content hash, its imports as written, and
+ * their resolution. When configuration fingerprints differ, every schema is considered stale. Imports of a file whose
+ * hash did not change are taken from the previous manifest rather than scanned again.
+ * <p>
+ * The manifest also maps each schema to the outputs it generated, so outputs of deleted or renamed schemas can be
+ * pruned.
+ */
+public class SchemaManifest
+{
+    private static final String FORMAT_VERSION = "3";
+
+    private static final String VERSION_KEY = "version";
+    private static final String CONFIGURATION_KEY = "configuration";
+    private static final String HASH_KEY_PREFIX = "hash.";
+    private static final String IMPORTS_KEY_PREFIX = "imports.";
+    private static final String DEPENDENCIES_KEY_PREFIX = "dependencies.";
+    private static final String OUTPUTS_KEY_PREFIX = "outputs.";
+    private static final String REQUEST_KEY_PREFIX = "request.";
+
+    private static final Joiner LIST_JOINER = Joiner.on( '\n' );
+    private static final Splitter LIST_SPLITTER = Splitter.on( '\n' ).omitEmptyStrings();
+
+    private static class Entry
+    {
+        private final String hash;
+        private final List<String> imports;
+        private final List<String> dependencies;
+
+        public Entry( String hash, List<String> imports, List<String> dependencies )
+        {
+            this.hash = hash;
+            this.imports = imports;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final String configuration;
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private final Map<String, List<String>> schemaOutputs = new TreeMap<>();
+    private final Map<String, String> schemaRequests = new TreeMap<>();
+
+    public SchemaManifest( String configuration )
+    {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Loads a previously stored manifest.
+     *
+     * @return the manifest, or <code>null</code> if the file does not exist or has an unknown format.
+     */
+    public static SchemaManifest load( File file )
+        throws IOException
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+
+        Properties properties = new Properties();
+
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( file ) ) )
+        {
+            properties.load( in );
+        }
+
+        if ( !FORMAT_VERSION.equals( properties.getProperty( VERSION_KEY ) ) )
+        {
+            return null;
+        }
+
+        SchemaManifest manifest = new SchemaManifest( properties.getProperty( CONFIGURATION_KEY ) );
+
+        for ( String key : properties.stringPropertyNames() )
+        {
+            if ( key.startsWith( HASH_KEY_PREFIX ) )
+            {
+                String path = key.substring( HASH_KEY_PREFIX.length() );
+
+                manifest.entries.put(
+                    path,
+                    new Entry(
+                            properties.getProperty( key ),
+                            split( properties.getProperty( IMPORTS_KEY_PREFIX + path ) ),
+                            split( properties.getProperty( DEPENDENCIES_KEY_PREFIX + path ) ) ) );
+            }
+            else if ( key.startsWith( REQUEST_KEY_PREFIX ) )
+            {
+                manifest.schemaRequests.put(
+                    key.substring( REQUEST_KEY_PREFIX.length() ),
+                    properties.getProperty( key ) );
+            }
+            else if ( key.startsWith( OUTPUTS_KEY_PREFIX ) )
+            {
+                manifest.schemaOutputs.put(
+                    key.substring( OUTPUTS_KEY_PREFIX.length() ),
+                    split( properties.getProperty( key ) ) );
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Stores this manifest. The file is written aside and then atomically renamed, so an interrupted build never
+     * leaves a truncated manifest behind.
+     */
+    public void store( File file )
+        throws IOException
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty( VERSION_KEY, FORMAT_VERSION );
+        properties.setProperty( CONFIGURATION_KEY, configuration );
+
+        for ( Map.Entry<String, Entry> entry : entries.entrySet() )
+        {
+            properties.setProperty( HASH_KEY_PREFIX + entry.getKey(), entry.getValue().hash );
+            properties.setProperty( IMPORTS_KEY_PREFIX + entry.getKey(), LIST_JOINER.join( entry.getValue().imports ) );
+            properties.setProperty(
+                DEPENDENCIES_KEY_PREFIX + entry.getKey(),
+                LIST_JOINER.join( entry.getValue().dependencies ) );
+        }
+
+        for ( Map.Entry<String, List<String>> entry : schemaOutputs.entrySet() )
+        {
+            properties.setProperty( OUTPUTS_KEY_PREFIX + entry.getKey(), LIST_JOINER.join( entry.getValue() ) );
+        }
+
+        for ( Map.Entry<String, String> entry : schemaRequests.entrySet() )
+        {
+            properties.setProperty( REQUEST_KEY_PREFIX + entry.getKey(), entry.getValue() );
+        }
+
+        file.getParentFile().mkdirs();
+
+        File tempFile = new File( file.getPath() + ".tmp" );
+
+        try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( tempFile ) ) )
+        {
+            properties.store( out, "capnp-maven-plugin schema manifest" );
+        }
+
+        java.nio.file.Files.move(
+            tempFile.toPath(),
+            file.toPath(),
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    public String getConfiguration()
+    {
+        return configuration;
+    }
+
+    /**
+     * Records a schema and, transitively, the files it imports.
+     *
+     * @param schema schema file.
+     * @param previous the previous manifest, used to avoid scanning unchanged files. May be <code>null</code>.
+     * @param scanner scanner resolving imports.
+     */
+    public void addSchema( File schema, SchemaManifest previous, ImportScanner scanner )
+        throws IOException
+    {
+        addSchema( schema, previous, scanner, null );
+    }
+
+    /**
+     * Records a schema and, transitively, the files it imports. Files of the previous manifest known not to have
+     * changed are not hashed again.
+     *
+     * @param schema schema file.
+     * @param previous the previous manifest, used to avoid scanning unchanged files. May be <code>null</code>.
+     * @param scanner scanner resolving imports.
+     * @param changedFiles absolute files changed since the previous manifest, such as reported by an incremental
+     *            build context, or <code>null</code> if unknown.
+     */
+    public void addSchema( File schema, SchemaManifest previous, ImportScanner scanner, Set<File> changedFiles )
+        throws IOException
+    {
+        schemaOutputs.put( path( schema ), null );
+
+        Deque<File> pending = new ArrayDeque<>();
+        pending.add( schema );
+
+        while ( !pending.isEmpty() )
+        {
+            File file = pending.poll();
+            String path = path( file );
+
+            if ( entries.containsKey( path ) )
+            {
+                continue;
+            }
+
+            Entry previousEntry = ( previous == null ) ? null : previous.entries.get( path );
+
+            String hash =
+                ( previousEntry != null && changedFiles != null && !changedFiles.contains( new File( path ) ) )
+                    ? previousEntry.hash
+                    : Files.hash( file, Hashing.sha1() ).toString();
+
+            List<String> imports =
+                ( previousEntry != null && previousEntry.hash.equals( hash ) )
+                    ? previousEntry.imports
+                    : scanner.scan( file );
+
+            List<String> dependencies = new ArrayList<>();
+
+            for ( String importPath : imports )
+            {
+                File dependency = scanner.resolve( importPath, file );
+
+                if ( dependency != null )
+                {
+                    dependencies.add( path( dependency ) );
+                    pending.add( dependency );
+                }
+            }
+
+            entries.put( path, new Entry( hash, imports, dependencies ) );
+        }
+    }
+
+    /**
+     * Tells whether a schema is stale compared to the previous manifest, because itself or any file it depends on,
+     * directly or transitively, changed.
+     *
+     * @param schema schema file, previously added to this manifest.
+     * @param staleFiles result of {@link #getStaleFiles(SchemaManifest)}.
+     */
+    public boolean isStale( File schema, Set<String> staleFiles )
+    {
+        return staleFiles.contains( path( schema ) );
+    }
+
+    /**
+     * Returns a fingerprint of a schema and of all files it depends on, directly or transitively.
+     *
+     * @param schema schema file, previously added to this manifest.
+     */
+    public String getFingerprint( File schema )
+    {
+        Hasher hasher = Hashing.sha1().newHasher();
+
+        for ( String path : getClosure( schema ) )
+        {
+            hasher.putString( path, Charsets.UTF_8 ).putString( entries.get( path ).hash, Charsets.UTF_8 );
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Returns a fingerprint of the contents of a schema and of all files it depends on, directly or transitively, and
+     * of how they import each other. Unlike {@link #getFingerprint(File)}, it does not depend on where files are
+     * located, so it is the same for all checkouts of a project.
+     * <p>
+     * Files are numbered in order of discovery from the schema. Each file contributes its content hash, its imports as
+     * written, and the numbers of the files they resolve to; files of the same content imported through other paths
+     * give other fingerprints.
+     *
+     * @param schema schema file, previously added to this manifest.
+     */
+    public String getContentFingerprint( File schema )
+    {
+        Map<String, Integer> numbers = new HashMap<>();
+        Deque<String> pending = new ArrayDeque<>();
+        Hasher hasher = Hashing.sha1().newHasher();
+
+        numbers.put( path( schema ), 0 );
+        pending.add( path( schema ) );
+
+        while ( !pending.isEmpty() )
+        {
+            Entry entry = entries.get( pending.poll() );
+
+            if ( entry == null )
+            {
+                hasher.putByte( (byte) 0 );
+
+                continue;
+            }
+
+            hasher.putByte( (byte) 1 ).putString( entry.hash, Charsets.UTF_8 ).putInt( entry.imports.size() );
+
+            for ( String importPath : entry.imports )
+            {
+                hasher.putString( importPath, Charsets.UTF_8 ).putByte( (byte) 0 );
+            }
+
+            hasher.putInt( entry.dependencies.size() );
+
+            for ( String dependency : entry.dependencies )
+            {
+                Integer number = numbers.get( dependency );
+
+                if ( number == null )
+                {
+                    number = numbers.size();
+                    numbers.put( dependency, number );
+                    pending.add( dependency );
+                }
+
+                hasher.putInt( number );
+            }
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Returns a fingerprint of the contents of all schemas of this manifest, of their paths relative to given schema
+     * directory, of the files they depend on and of the outputs generated from them. Like
+     * {@link #getContentFingerprint(File)}, it is the same for all checkouts.
+     *
+     * @param schemaDirectory directory of schemas of this manifest.
+     */
+    public String getGenerationFingerprint( File schemaDirectory )
+    {
+        Path directoryPath = Paths.get( path( schemaDirectory ) );
+        Set<String> values = new TreeSet<>();
+
+        for ( Map.Entry<String, List<String>> entry : schemaOutputs.entrySet() )
+        {
+            File schema = new File( entry.getKey() );
+            String relativePath =
+                directoryPath.relativize( schema.toPath() ).toString().replace( File.separatorChar, '/' );
+
+            values.add(
+                relativePath + "\n" + getContentFingerprint( schema ) + "\n"
+                    + LIST_JOINER.join( new TreeSet<>( entry.getValue() ) ) );
+        }
+
+        Hasher hasher = Hashing.sha1().newHasher();
+
+        for ( String value : values )
+        {
+            hasher.putString( value, Charsets.UTF_8 ).putByte( (byte) 0 );
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Records the outputs generated from a schema.
+     *
+     * @param schema schema file, previously added to this manifest.
+     * @param outputs generated files, relative to output directory.
+     */
+    public void setOutputs( File schema, List<String> outputs )
+    {
+        schemaOutputs.put( path( schema ), outputs );
+    }
+
+    /**
+     * Takes outputs of schemas not compiled since the previous manifest from the previous manifest.
+     */
+    public void inheritOutputs( SchemaManifest previous )
+    {
+        for ( Map.Entry<String, List<String>> entry : schemaOutputs.entrySet() )
+        {
+            if ( entry.getValue() == null )
+            {
+                List<String> previousOutputs =
+                    ( previous == null ) ? null : previous.schemaOutputs.get( entry.getKey() );
+
+                entry.setValue( ( previousOutputs == null ) ? Collections.<String> emptyList() : previousOutputs );
+            }
+        }
+    }
+
+    /**
+     * Records the key of the code generator request parsed from a schema.
+     *
+     * @param schema schema file, previously added to this manifest.
+     * @param requestKey key of the request.
+     */
+    public void setRequest( File schema, String requestKey )
+    {
+        schemaRequests.put( path( schema ), requestKey );
+    }
+
+    /**
+     * Takes request keys of schemas not parsed since the previous manifest from the previous manifest, as long as the
+     * schema, its imports and the configuration did not change, so their requests are still valid.
+     */
+    public void inheritRequests( SchemaManifest previous )
+    {
+        if ( previous == null || !configuration.equals( previous.configuration ) )
+        {
+            return;
+        }
+
+        for ( String path : schemaOutputs.keySet() )
+        {
+            String previousRequest = previous.schemaRequests.get( path );
+
+            if ( previousRequest != null
+                && !schemaRequests.containsKey( path )
+                && getFingerprint( new File( path ) ).equals( previous.getFingerprint( new File( path ) ) ) )
+            {
+                schemaRequests.put( path, previousRequest );
+            }
+        }
+    }
+
+    /**
+     * Returns keys of all code generator requests recorded by this manifest.
+     */
+    public Set<String> getRequests()
+    {
+        return new HashSet<>( schemaRequests.values() );
+    }
+
+    /**
+     * Returns outputs recorded by the previous manifest but no longer generated from any schema of this manifest.
+     *
+     * @param previous the previous manifest, may be <code>null</code>.
+     */
+    public Set<String> getStaleOutputs( SchemaManifest previous )
+    {
+        Set<String> staleOutputs = new TreeSet<>();
+
+        if ( previous != null )
+        {
+            staleOutputs.addAll( previous.getAllOutputs() );
+            staleOutputs.removeAll( getAllOutputs() );
+        }
+
+        return staleOutputs;
+    }
+
+    /**
+     * Returns paths of schemas of which some outputs recorded by this manifest no longer exist, as when deleted by
+     * hand.
+     *
+     * @param outputDirectory directory outputs are relative to.
+     */
+    public Set<String> getSchemasWithMissingOutputs( File outputDirectory )
+    {
+        Set<String> schemas = new TreeSet<>();
+
+        for ( Map.Entry<String, List<String>> entry : schemaOutputs.entrySet() )
+        {
+            if ( entry.getValue() == null )
+            {
+                continue;
+            }
+
+            for ( String output : entry.getValue() )
+            {
+                if ( !new File( outputDirectory, output ).isFile() )
+                {
+                    schemas.add( entry.getKey() );
+
+                    break;
+                }
+            }
+        }
+
+        return schemas;
+    }
+
+    /**
+     * Returns paths of files that changed compared to the previous manifest, together with all their dependents.
+     * Schemas that shared outputs with a schema that no longer exists are considered changed: they must be compiled
+     * again to know which of these outputs they still generate.
+     *
+     * @param previous the previous manifest, may be <code>null</code>.
+     */
+    public Set<String> getStaleFiles( SchemaManifest previous )
+    {
+        if ( previous == null || !configuration.equals( previous.configuration ) )
+        {
+            return Collections.unmodifiableSet( entries.keySet() );
+        }
+
+        Set<String> changedFiles = new HashSet<>();
+
+        for ( Map.Entry<String, Entry> entry : entries.entrySet() )
+        {
+            Entry previousEntry = previous.entries.get( entry.getKey() );
+
+            if ( previousEntry == null
+                || !previousEntry.hash.equals( entry.getValue().hash )
+                || !previousEntry.dependencies.equals( entry.getValue().dependencies ) )
+            {
+                changedFiles.add( entry.getKey() );
+            }
+        }
+
+        changedFiles.addAll( getSchemasSharingOutputsWithRemovedSchemas( previous ) );
+
+        return getDependents( changedFiles );
+    }
+
+    // [ Utility methods ]
+
+    private Set<String> getClosure( File schema )
+    {
+        Set<String> closure = new TreeSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add( path( schema ) );
+
+        while ( !pending.isEmpty() )
+        {
+            String path = pending.poll();
+            Entry entry = entries.get( path );
+
+            if ( entry != null && closure.add( path ) )
+            {
+                pending.addAll( entry.dependencies );
+            }
+        }
+
+        return closure;
+    }
+
+    private Set<String> getAllOutputs()
+    {
+        Set<String> outputs = new HashSet<>();
+
+        for ( List<String> schemaOutput : schemaOutputs.values() )
+        {
+            if ( schemaOutput != null )
+            {
+                outputs.addAll( schemaOutput );
+            }
+        }
+
+        return outputs;
+    }
+
+    private Set<String> getSchemasSharingOutputsWithRemovedSchemas( SchemaManifest previous )
+    {
+        Set<String> removedOutputs = new HashSet<>();
+
+        for ( Map.Entry<String, List<String>> entry : previous.schemaOutputs.entrySet() )
+        {
+            if ( !schemaOutputs.containsKey( entry.getKey() ) )
+            {
+                removedOutputs.addAll( entry.getValue() );
+            }
+        }
+
+        Set<String> schemas = new HashSet<>();
+
+        if ( removedOutputs.isEmpty() )
+        {
+            return schemas;
+        }
+
+        for ( Map.Entry<String, List<String>> entry : previous.schemaOutputs.entrySet() )
+        {
+            if ( schemaOutputs.containsKey( entry.getKey() )
+                && !Collections.disjoint( entry.getValue(), removedOutputs ) )
+            {
+                schemas.add( entry.getKey() );
+            }
+        }
+
+        return schemas;
+    }
+
+    /**
+     * Walks the reverse dependency graph from given files.
+     */
+    private Set<String> getDependents( Collection<String> files )
+    {
+        SetMultimap<String, String> reverseDependencies = HashMultimap.create();
+
+        for ( Map.Entry<String, Entry> entry : entries.entrySet() )
+        {
+            for ( String dependency : entry.getValue().dependencies )
+            {
+                reverseDependencies.put( dependency, entry.getKey() );
+            }
+        }
+
+        Set<String> dependents = new HashSet<>( files );
+        Deque<String> pending = new ArrayDeque<>( files );
+
+        while ( !pending.isEmpty() )
+        {
+            for ( String dependent : reverseDependencies.get( pending.poll() ) )
+            {
+                if ( dependents.add( dependent ) )
+                {
+                    pending.add( dependent );
+                }
+            }
+        }
+
+        return dependents;
+    }
+
+    private static String path( File file )
+    {
+        return file.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private static List<String> split( String value )
+    {
+        if ( value == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return LIST_SPLITTER.splitToList( value );
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A set of schemas compiled together into an output directory, added to main or test sources of the project.
+ */
+public class SchemaSet
+{
+    /**
+     * Base directory of definition schemas.
+     */
+    private File schemaDirectory;
+
+    /**
+     * Output directory of generated java classes.
+     */
+    private File outputDirectory;
+
+    /**
+     * Supplementary import directories. The schema directory is implicitly an import directory.
+     */
+    private File[] importDirectories;
+
+    /**
+     * Explicitly specified definition schema files, relative to the schema directory. If none, all schemas are
+     * compiled.
+     */
+    private String[] schemas;
+
+    /**
+     * Glob patterns of schemas to compile, relative to the schema directory.
+     */
+    private String[] includes;
+
+    /**
+     * Glob patterns of schemas not to compile, relative to the schema directory.
+     */
+    private String[] excludes;
+
+    /**
+     * Set to true to add generated sources to test sources of the project.
+     */
+    private boolean testSources;
+
+    /**
+     * Compilation working directory of the set. Defaults to a subdirectory of the execution work directory.
+     */
+    private File workDirectory;
+
+    public SchemaSet() {}
+
+    public SchemaSet(
+            File schemaDirectory,
+            File outputDirectory,
+            File[] importDirectories,
+            String[] schemas,
+            String[] includes,
+            String[] excludes,
+            File workDirectory )
+    {
+        this.schemaDirectory = schemaDirectory;
+        this.outputDirectory = outputDirectory;
+        this.importDirectories = importDirectories;
+        this.schemas = schemas;
+        this.includes = includes;
+        this.excludes = excludes;
+        this.workDirectory = workDirectory;
+    }
+
+    public File getSchemaDirectory()
+    {
+        return schemaDirectory;
+    }
+
+    public File getOutputDirectory()
+    {
+        return outputDirectory;
+    }
+
+    public List<File> getImportDirectories()
+    {
+        return asList( importDirectories );
+    }
+
+    /**
+     * Returns explicitly specified schemas, or <code>null</code> if schemas are to be found.
+     */
+    public List<String> getSchemas()
+    {
+        return ( schemas == null ) ? null : Arrays.asList( schemas );
+    }
+
+    public List<String> getIncludes()
+    {
+        return asList( includes );
+    }
+
+    public List<String> getExcludes()
+    {
+        return asList( excludes );
+    }
+
+    public boolean isTestSources()
+    {
+        return testSources;
+    }
+
+    public File getWorkDirectory()
+    {
+        return workDirectory;
+    }
+
+    public void setWorkDirectory( File workDirectory )
+    {
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * Appends import directories not already imported by the set.
+     */
+    public void addImportDirectories( List<File> directories )
+    {
+        Set<File> allDirectories = new LinkedHashSet<>( getImportDirectories() );
+        allDirectories.addAll( directories );
+
+        importDirectories = allDirectories.toArray( new File[allDirectories.size()] );
+    }
+
+    @Override
+    public String toString()
+    {
+        return schemaDirectory + ":" + outputDirectory;
+    }
+
+    private static <T> List<T> asList( T[] values )
+    {
+        return ( values == null ) ? Collections.<T> emptyList() : Arrays.asList( values );
+    }
+}
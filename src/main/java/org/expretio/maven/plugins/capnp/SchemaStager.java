@@ -0,0 +1,157 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Stages schemas of a schema directory into a working directory, according to a {@link StagingMode}.
+ */
+public class SchemaStager
+{
+    private final Path schemaDirectory;
+    private final Path workDirectory;
+    private final String schemaFileSuffix;
+
+    public SchemaStager( File schemaDirectory, File workDirectory, String schemaFileExtension )
+    {
+        this.schemaDirectory = schemaDirectory.toPath();
+        this.workDirectory = workDirectory.toPath();
+        this.schemaFileSuffix = "." + schemaFileExtension;
+    }
+
+    /**
+     * Stages schemas.
+     *
+     * @return the directory capnp must run from: working directory, or schema directory when nothing is staged.
+     */
+    public File stage( StagingMode mode )
+        throws IOException
+    {
+        switch ( mode )
+        {
+            case NONE:
+                return schemaDirectory.toFile();
+
+            case COPY:
+                FileUtils.copyDirectoryStructure( schemaDirectory.toFile(), workDirectory.toFile() );
+                break;
+
+            default:
+                stageSchemas( mode );
+                break;
+        }
+
+        return workDirectory.toFile();
+    }
+
+    // [ Utility methods ]
+
+    private void stageSchemas( final StagingMode mode )
+        throws IOException
+    {
+        Files.walkFileTree(
+            schemaDirectory,
+            new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile( Path file, BasicFileAttributes attributes )
+                    throws IOException
+                {
+                    if ( attributes.isRegularFile() && file.getFileName().toString().endsWith( schemaFileSuffix ) )
+                    {
+                        Path target = workDirectory.resolve( schemaDirectory.relativize( file ).toString() );
+
+                        if ( mode == StagingMode.LINK )
+                        {
+                            link( file, target );
+                        }
+                        else
+                        {
+                            sync( file, attributes, target );
+                        }
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            } );
+    }
+
+    private void sync( Path source, BasicFileAttributes sourceAttributes, Path target )
+        throws IOException
+    {
+        if ( Files.isRegularFile( target, LinkOption.NOFOLLOW_LINKS ) )
+        {
+            BasicFileAttributes targetAttributes =
+                    Files.readAttributes( target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS );
+
+            if ( targetAttributes.size() == sourceAttributes.size()
+                && targetAttributes.lastModifiedTime().equals( sourceAttributes.lastModifiedTime() ) )
+            {
+                return;
+            }
+        }
+
+        Files.createDirectories( target.getParent() );
+        Files.copy( source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES );
+    }
+
+    private void link( Path source, Path target )
+        throws IOException
+    {
+        if ( Files.exists( target ) && Files.isSameFile( source, target ) )
+        {
+            return;
+        }
+
+        Files.createDirectories( target.getParent() );
+        Files.deleteIfExists( target );
+
+        try
+        {
+            Files.createLink( target, source );
+        }
+        catch ( FileSystemException | UnsupportedOperationException e )
+        {
+            try
+            {
+                Files.createSymbolicLink( target, source.toAbsolutePath() );
+            }
+            catch ( FileSystemException | UnsupportedOperationException e2 )
+            {
+                Files.copy( source, target, StandardCopyOption.COPY_ATTRIBUTES );
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Measures time spent in each stage of an execution and in the compilation of each schema, or batch of schemas.
+ * Durations of a stage entered several times add up. Schemas may be recorded concurrently, and are identified by their
+ * schema directory, so same-named schemas of different schema sets are told apart.
+ */
+public class Timings
+{
+    private final long start = System.nanoTime();
+    private final Path baseDirectory;
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+    private final Map<String, Long> schemas = new LinkedHashMap<>();
+
+    public Timings()
+    {
+        this( null );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param baseDirectory directory schema directories are reported relative to, may be <code>null</code>.
+     */
+    public Timings( File baseDirectory )
+    {
+        this.baseDirectory = ( baseDirectory == null ) ? null : baseDirectory.getAbsoluteFile().toPath();
+    }
+
+    /**
+     * Starts measuring a stage, until returned measure is closed.
+     */
+    public Measure start( final String stage )
+    {
+        return new Measure()
+        {
+            @Override
+            protected void record( long nanos )
+            {
+                addStage( stage, nanos );
+            }
+        };
+    }
+
+    public synchronized void addStage( String stage, long nanos )
+    {
+        Long previous = stages.get( stage );
+
+        stages.put( stage, ( previous == null ) ? nanos : previous + nanos );
+    }
+
+    /**
+     * Records the compilation time of a schema, or batch of schemas.
+     *
+     * @param schemaDirectory schema directory of the schema set.
+     * @param schema schema, or schemas, relative to schema directory.
+     */
+    public synchronized void addSchema( File schemaDirectory, String schema, long nanos )
+    {
+        Path directory = schemaDirectory.getAbsoluteFile().toPath();
+
+        if ( baseDirectory != null && directory.startsWith( baseDirectory ) )
+        {
+            directory = baseDirectory.relativize( directory );
+        }
+
+        schemas.put( directory.toString().replace( '\\', '/' ) + ":" + schema, nanos );
+    }
+
+    /**
+     * Returns a single line summarizing total time and time of each stage.
+     */
+    public synchronized String getSummary()
+    {
+        StringBuilder summary = new StringBuilder( "total " ).append( millis( System.nanoTime() - start ) );
+        summary.append( " ms" );
+        String separator = " (";
+
+        for ( Map.Entry<String, Long> stage : stages.entrySet() )
+        {
+            summary.append( separator ).append( stage.getKey() ).append( ' ' ).append( millis( stage.getValue() ) );
+            summary.append( " ms" );
+            separator = ", ";
+        }
+
+        return stages.isEmpty() ? summary.toString() : summary.append( ')' ).toString();
+    }
+
+    /**
+     * Writes durations as a JSON object, in milliseconds.
+     *
+     * @param id identifier of the measured execution.
+     */
+    public synchronized void write( File file, String id )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        try ( Writer out =
+                new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), Charsets.UTF_8 ) ) )
+        {
+            out.write( "{\n  \"execution\": " + quote( id ) + ",\n" );
+            out.write( "  \"total\": " + millis( System.nanoTime() - start ) + ",\n" );
+            out.write( "  \"stages\": " );
+            write( out, stages );
+            out.write( ",\n  \"schemas\": " );
+            write( out, schemas );
+            out.write( "\n}\n" );
+        }
+    }
+
+    // [ Utility methods ]
+
+    private static void write( Writer out, Map<String, Long> durations )
+        throws IOException
+    {
+        String separator = "{\n";
+
+        for ( Map.Entry<String, Long> duration : durations.entrySet() )
+        {
+            out.write( separator + "    " + quote( duration.getKey() ) + ": " + millis( duration.getValue() ) );
+            separator = ",\n";
+        }
+
+        out.write( durations.isEmpty() ? "{}" : "\n  }" );
+    }
+
+    private static long millis( long nanos )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( nanos );
+    }
+
+    private static String quote( String value )
+    {
+        StringBuilder quoted = new StringBuilder( "\"" );
+
+        for ( char c : value.toCharArray() )
+        {
+            if ( c == '"' || c == '\\' )
+            {
+                quoted.append( '\\' ).append( c );
+            }
+            else if ( c < 0x20 )
+            {
+                quoted.append( String.format( "\\u%04x", (int) c ) );
+            }
+            else
+            {
+                quoted.append( c );
+            }
+        }
+
+        return quoted.append( '"' ).toString();
+    }
+
+    // [ Inner classes ]
+
+    /**
+     * Measure of a stage in progress, recorded when closed.
+     */
+    public abstract static class Measure
+        implements AutoCloseable
+    {
+        private final long start = System.nanoTime();
+
+        @Override
+        public void close()
+        {
+            record( System.nanoTime() - start );
+        }
+
+        protected abstract void record( long nanos );
+    }
+}
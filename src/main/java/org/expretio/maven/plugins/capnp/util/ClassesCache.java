@@ -0,0 +1,192 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Content-addressed cache of jars of compiled classes, shared by workspaces of a machine.
+ * <p>
+ * Each entry is a jar named by its key. Entries are written aside and atomically renamed, and are touched when used;
+ * when the cache grows beyond its maximum size, least recently used entries are evicted. The cache is only walked for
+ * eviction once enough has been stored since the last walk, by any build, to possibly exceed its maximum size.
+ */
+public class ClassesCache
+{
+    private static final String JAR_EXTENSION = ".jar";
+
+    private final File directory;
+    private final LruEviction eviction;
+
+    /**
+     * Constructor.
+     *
+     * @param directory cache directory.
+     * @param maxSize maximum size of cache, in bytes.
+     */
+    public ClassesCache( File directory, long maxSize )
+    {
+        this.directory = directory;
+        this.eviction = new LruEviction( directory, maxSize );
+    }
+
+    /**
+     * Returns the jar of an entry, or <code>null</code> if no entry exists for given key.
+     */
+    public File get( String key )
+    {
+        File entryFile = getEntryFile( key );
+
+        if ( !entryFile.isFile() )
+        {
+            return null;
+        }
+
+        entryFile.setLastModified( System.currentTimeMillis() );
+
+        return entryFile;
+    }
+
+    /**
+     * Stores classes of given directory as a jar entry. An existing entry for the same key is kept as is.
+     */
+    public void put( String key, File classesDirectory )
+        throws IOException
+    {
+        File entryFile = getEntryFile( key );
+
+        if ( entryFile.isFile() )
+        {
+            return;
+        }
+
+        entryFile.getParentFile().mkdirs();
+
+        Path tempFile = Files.createTempFile( entryFile.getParentFile().toPath(), LruEviction.TEMP_PREFIX + key, null );
+
+        try
+        {
+            List<String> paths = FileUtils.getFileNames( classesDirectory, "**", null, false );
+            Collections.sort( paths );
+
+            try ( JarOutputStream out =
+                new JarOutputStream( new BufferedOutputStream( Files.newOutputStream( tempFile ) ) ) )
+            {
+                for ( String path : paths )
+                {
+                    out.putNextEntry( new JarEntry( path.replace( File.separatorChar, '/' ) ) );
+                    Files.copy( new File( classesDirectory, path ).toPath(), out );
+                    out.closeEntry();
+                }
+            }
+
+            long size = Files.size( tempFile );
+
+            Files.move( tempFile, entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE );
+
+            eviction.stored( size );
+        }
+        catch ( FileAlreadyExistsException | AtomicMoveNotSupportedException e )
+        {
+            // stored concurrently by another build
+        }
+        finally
+        {
+            Files.deleteIfExists( tempFile );
+        }
+    }
+
+    /**
+     * Extracts classes of a jar entry into given directory. Jar entries resolving outside of the directory are
+     * rejected.
+     */
+    public static void extract( File jarFile, File classesDirectory )
+        throws IOException
+    {
+        String classesPath = classesDirectory.getCanonicalPath() + File.separator;
+
+        try ( JarInputStream in =
+            new JarInputStream( new BufferedInputStream( Files.newInputStream( jarFile.toPath() ) ) ) )
+        {
+            JarEntry entry;
+
+            while ( ( entry = in.getNextJarEntry() ) != null )
+            {
+                if ( entry.isDirectory() )
+                {
+                    continue;
+                }
+
+                File file = new File( classesDirectory, entry.getName() );
+
+                if ( !file.getCanonicalPath().startsWith( classesPath ) )
+                {
+                    throw new IOException(
+                        "Entry outside of classes directory: " + entry.getName() + " in " + jarFile );
+                }
+
+                file.getParentFile().mkdirs();
+
+                try ( OutputStream out = new BufferedOutputStream( Files.newOutputStream( file.toPath() ) ) )
+                {
+                    ByteStreams.copy( in, out );
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until cache size is below its maximum size. The cache is walked only when the
+     * size stored since the last walk exceeds a part of its maximum size.
+     */
+    public void evict()
+        throws IOException
+    {
+        eviction.evict();
+    }
+
+    // [ Utility methods ]
+
+    private File getEntryFile( String key )
+    {
+        return new File( new File( directory, key.substring( 0, 2 ) ), key + JAR_EXTENSION );
+    }
+}
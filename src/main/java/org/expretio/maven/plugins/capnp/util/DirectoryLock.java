@@ -0,0 +1,188 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock of a directory, held through a lock file, shared by threads of this JVM and by other processes.
+ * <p>
+ * A file lock is held on behalf of the whole JVM, so threads of this JVM first acquire an in-process lock of the
+ * directory.
+ */
+public class DirectoryLock
+    implements Closeable
+{
+    private static final String LOCK_FILE_NAME = ".lock";
+
+    private static final ConcurrentMap<String, ReentrantLock> THREAD_LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock threadLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private DirectoryLock( ReentrantLock threadLock, FileChannel channel, FileLock fileLock )
+    {
+        this.threadLock = threadLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Acquires the lock of a directory if available.
+     *
+     * @return the lock, or <code>null</code> if held by another thread or process.
+     */
+    public static DirectoryLock tryLock( File directory )
+        throws IOException
+    {
+        ReentrantLock threadLock = getThreadLock( directory );
+
+        if ( !threadLock.tryLock() )
+        {
+            return null;
+        }
+
+        try
+        {
+            FileChannel channel = open( directory );
+            FileLock fileLock;
+
+            try
+            {
+                fileLock = channel.tryLock();
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                channel.close();
+
+                throw e;
+            }
+
+            if ( fileLock == null )
+            {
+                channel.close();
+                threadLock.unlock();
+
+                return null;
+            }
+
+            return new DirectoryLock( threadLock, channel, fileLock );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            threadLock.unlock();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Acquires the lock of a directory, waiting for other threads and processes to release it.
+     */
+    public static DirectoryLock lock( File directory )
+        throws IOException, InterruptedException
+    {
+        ReentrantLock threadLock = getThreadLock( directory );
+
+        threadLock.lockInterruptibly();
+
+        try
+        {
+            FileChannel channel = open( directory );
+
+            try
+            {
+                return new DirectoryLock( threadLock, channel, channel.lock() );
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                channel.close();
+
+                throw e;
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            threadLock.unlock();
+
+            throw e;
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            fileLock.release();
+            channel.close();
+        }
+        finally
+        {
+            threadLock.unlock();
+        }
+    }
+
+    // [ Utility methods ]
+
+    private static ReentrantLock getThreadLock( File directory )
+        throws IOException
+    {
+        String key = directory.getCanonicalPath();
+        ReentrantLock threadLock = THREAD_LOCKS.get( key );
+
+        if ( threadLock == null )
+        {
+            ReentrantLock newThreadLock = new ReentrantLock();
+            threadLock = THREAD_LOCKS.putIfAbsent( key, newThreadLock );
+
+            if ( threadLock == null )
+            {
+                threadLock = newThreadLock;
+            }
+        }
+
+        return threadLock;
+    }
+
+    private static FileChannel open( File directory )
+        throws IOException
+    {
+        directory.mkdirs();
+
+        return FileChannel.open(
+                new File( directory, LOCK_FILE_NAME ).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE );
+    }
+}
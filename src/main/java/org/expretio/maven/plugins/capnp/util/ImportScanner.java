@@ -0,0 +1,133 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Lightweight scanner of capnp schema dependencies, finding <code>import "..."</code> and <code>embed "..."</code>
+ * expressions (including <code>using ... = import "..."</code> forms) without parsing the whole schema.
+ * <p>
+ * Imports are resolved the way capnp does: absolute imports are searched in import path order, relative imports are
+ * resolved from the directory of the importing file.
+ */
+public class ImportScanner
+{
+    private static final Pattern IMPORT_PATTERN =
+            Pattern.compile( "\\b(?:import|embed)\\s+\"((?:[^\"\\\\]|\\\\.)*)\"" );
+
+    private final List<File> importPath;
+
+    /**
+     * Constructor.
+     *
+     * @param importPath import directories, in the order given to capnp.
+     */
+    public ImportScanner( List<File> importPath )
+    {
+        this.importPath = importPath;
+    }
+
+    /**
+     * Returns the imports of a schema, as written in the schema.
+     */
+    public List<String> scan( File schema )
+        throws IOException
+    {
+        List<String> imports = new ArrayList<>();
+
+        for ( String line : Files.readLines( schema, Charsets.UTF_8 ) )
+        {
+            Matcher matcher = IMPORT_PATTERN.matcher( stripComment( line ) );
+
+            while ( matcher.find() )
+            {
+                imports.add( matcher.group( 1 ) );
+            }
+        }
+
+        return imports;
+    }
+
+    /**
+     * Resolves an import of a schema.
+     *
+     * @return the imported file, or <code>null</code> if it cannot be found.
+     */
+    public File resolve( String path, File schema )
+    {
+        if ( !path.startsWith( "/" ) )
+        {
+            File file = new File( schema.getParentFile(), path );
+
+            return file.isFile() ? file : null;
+        }
+
+        for ( File importDirectory : importPath )
+        {
+            File file = new File( importDirectory, path.substring( 1 ) );
+
+            if ( file.isFile() )
+            {
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+    // [ Utility methods ]
+
+    private static String stripComment( String line )
+    {
+        boolean quoted = false;
+
+        for ( int i = 0; i < line.length(); i++ )
+        {
+            char c = line.charAt( i );
+
+            if ( c == '\\' && quoted )
+            {
+                i++;
+            }
+            else if ( c == '"' )
+            {
+                quoted = !quoted;
+            }
+            else if ( c == '#' && !quoted )
+            {
+                return line.substring( 0, i );
+            }
+        }
+
+        return line;
+    }
+}
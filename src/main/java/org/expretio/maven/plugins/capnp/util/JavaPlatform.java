@@ -2,6 +2,8 @@ package org.expretio.maven.plugins.capnp.util;
 
 import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.collect.Maps;
@@ -68,6 +70,12 @@ public class JavaPlatform
         }
     }
 
+    private static final Os CURRENT_OS = Os.getCurrentOs();
+
+    private static final ConcurrentMap<String, String> canonicalArchitectures = new ConcurrentHashMap<>();
+
+    private static final String CURRENT_ARCH = getCanonicalArchitecture( StandardSystemProperty.OS_ARCH.value() );
+
     private JavaPlatform() {}
 
     public static Os getOs( String name )
@@ -77,21 +85,30 @@ public class JavaPlatform
 
     public static Os getCurrentOs()
     {
-        // XXX: cache this;
-        return Os.getCurrentOs();
+        return CURRENT_OS;
     }
 
     public static String getCurrentArch()
     {
-        // XXX: cache this;
-        return getCanonicalArchitecture( StandardSystemProperty.OS_ARCH.value() );
+        return CURRENT_ARCH;
     }
 
     public static String getCanonicalArchitecture( String archName )
     {
+        String canonicalArchitecture = canonicalArchitectures.get( archName );
+
+        if ( canonicalArchitecture != null )
+        {
+            return canonicalArchitecture;
+        }
+
         try
         {
-            return (String) getCanonicalArchitectureMethod.invoke( null, archName );
+            canonicalArchitecture = (String) getCanonicalArchitectureMethod.invoke( null, archName );
+
+            canonicalArchitectures.putIfAbsent( archName, canonicalArchitecture );
+
+            return canonicalArchitecture;
         }
         catch ( Exception e )
         {
@@ -0,0 +1,261 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Least recently used eviction of a cache whose entries, files or directories, are sharded in subdirectories.
+ * <p>
+ * Entries whose name starts with {@link #TEMP_PREFIX} are being written and are ignored. The cache is only walked once
+ * enough has been stored since the last walk, by any build, to possibly exceed its maximum size. Entries are deleted
+ * while holding the lock of the cache directory, so readers holding it never see a partially deleted entry.
+ */
+class LruEviction
+{
+    /**
+     * Prefix of names of entries being written.
+     */
+    static final String TEMP_PREFIX = ".tmp-";
+
+    private static final String PENDING_SIZE_FILE_NAME = ".pending-size";
+
+    /**
+     * Part of the maximum size stored before the cache is walked for eviction.
+     */
+    private static final int EVICTION_DIVISOR = 16;
+
+    private final File directory;
+    private final long maxSize;
+
+    private long storedSize;
+
+    /**
+     * Constructor.
+     *
+     * @param directory cache directory.
+     * @param maxSize maximum size of cache, in bytes.
+     */
+    LruEviction( File directory, long maxSize )
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Records the size of a stored entry.
+     */
+    void stored( long size )
+    {
+        storedSize += size;
+    }
+
+    /**
+     * Acquires the lock of the cache directory, waiting for other threads and processes to release it.
+     */
+    DirectoryLock lock()
+        throws IOException
+    {
+        try
+        {
+            return DirectoryLock.lock( directory );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException( "Interrupted while waiting for cache: " + directory );
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until cache size is below its maximum size. The cache is walked only when the
+     * size stored since the last walk exceeds a part of its maximum size.
+     */
+    void evict()
+        throws IOException
+    {
+        File pendingSizeFile = new File( directory, PENDING_SIZE_FILE_NAME );
+        long pendingSize = readPendingSize( pendingSizeFile ) + storedSize;
+
+        storedSize = 0;
+
+        if ( pendingSize < maxSize / EVICTION_DIVISOR )
+        {
+            writePendingSize( pendingSizeFile, pendingSize );
+
+            return;
+        }
+
+        writePendingSize( pendingSizeFile, 0 );
+
+        DirectoryLock lock = lock();
+
+        try
+        {
+            evictEntries();
+        }
+        finally
+        {
+            lock.close();
+        }
+    }
+
+    /**
+     * Returns the size of a file, or of all files of a directory.
+     */
+    static long size( Path path )
+        throws IOException
+    {
+        final long[] size = new long[ 1 ];
+
+        Files.walkFileTree(
+            path,
+            new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile( Path file, BasicFileAttributes attributes )
+                {
+                    size[ 0 ] += attributes.size();
+
+                    return FileVisitResult.CONTINUE;
+                }
+            } );
+
+        return size[ 0 ];
+    }
+
+    // [ Utility methods ]
+
+    private void evictEntries()
+        throws IOException
+    {
+        File[] shards = directory.listFiles();
+
+        if ( shards == null )
+        {
+            return;
+        }
+
+        List<File> entries = new ArrayList<>();
+        long size = 0;
+
+        for ( File shard : shards )
+        {
+            File[] shardEntries = shard.listFiles();
+
+            if ( shardEntries != null )
+            {
+                for ( File entry : shardEntries )
+                {
+                    if ( !entry.getName().startsWith( TEMP_PREFIX ) )
+                    {
+                        entries.add( entry );
+                        size += size( entry.toPath() );
+                    }
+                }
+            }
+        }
+
+        if ( size <= maxSize )
+        {
+            return;
+        }
+
+        Collections.sort(
+            entries,
+            new Comparator<File>()
+            {
+                @Override
+                public int compare( File left, File right )
+                {
+                    return Long.compare( left.lastModified(), right.lastModified() );
+                }
+            } );
+
+        for ( File entry : entries )
+        {
+            if ( size <= maxSize )
+            {
+                break;
+            }
+
+            size -= size( entry.toPath() );
+
+            FileUtils.forceDelete( entry );
+        }
+    }
+
+    /**
+     * Reads the size stored since the last walk. An unreadable size forces a walk.
+     */
+    private long readPendingSize( File file )
+    {
+        if ( !file.isFile() )
+        {
+            return 0;
+        }
+
+        try
+        {
+            return Long.parseLong( new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ).trim() );
+        }
+        catch ( IOException | NumberFormatException e )
+        {
+            return maxSize;
+        }
+    }
+
+    private static void writePendingSize( File file, long size )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        Path tempFile = Files.createTempFile( file.getParentFile().toPath(), TEMP_PREFIX, null );
+
+        try
+        {
+            Files.write( tempFile, String.valueOf( size ).getBytes( StandardCharsets.UTF_8 ) );
+            Files.move( tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally
+        {
+            Files.deleteIfExists( tempFile );
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Content-addressed cache of extracted natives, shared by all modules and builds of a user.
+ * <p>
+ * Natives are stored under <code>&lt;version&gt;/&lt;classifier&gt;/&lt;checksum&gt;/&lt;name&gt;</code>, where
+ * checksum is the CRC-32 of the resource content. For natives packaged in a jar, the checksum and size are read from
+ * the jar entry, so a cache hit never reads the resource. Extraction writes to a temporary file, verifies its
+ * checksum, and atomically renames it, so concurrent builds never see a partially written executable.
+ */
+public class NativesCache
+{
+    private final File directory;
+
+    public NativesCache( File directory )
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached copy of a natives resource, extracting it first if needed.
+     *
+     * @param resource natives resource.
+     * @param version natives version.
+     * @param classifier natives classifier.
+     */
+    public File get( URL resource, String version, String classifier )
+        throws IOException
+    {
+        ResourceInfo info = ResourceInfo.of( resource );
+
+        File entryDirectory =
+            new File( new File( new File( directory, version ), classifier ), Long.toHexString( info.checksum ) );
+
+        File file = new File( entryDirectory, new File( resource.getPath() ).getName() );
+
+        if ( file.isFile() && file.length() == info.size )
+        {
+            return file;
+        }
+
+        entryDirectory.mkdirs();
+
+        extract( resource, info, file );
+
+        return file;
+    }
+
+    // [ Utility methods ]
+
+    private void extract( URL resource, ResourceInfo info, File file )
+        throws IOException
+    {
+        File tempFile = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+
+        try
+        {
+            CRC32 crc = new CRC32();
+
+            try (
+                InputStream in = new CheckedInputStream( openStream( resource ), crc );
+                OutputStream out = new BufferedOutputStream( new FileOutputStream( tempFile ) );
+            )
+            {
+                ByteStreams.copy( in, out );
+            }
+
+            if ( crc.getValue() != info.checksum )
+            {
+                throw new IOException( "Checksum mismatch while extracting " + resource );
+            }
+
+            tempFile.setExecutable( true );
+
+            try
+            {
+                java.nio.file.Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch ( FileAlreadyExistsException e )
+            {
+                // extracted concurrently by another build, content is identical
+            }
+        }
+        finally
+        {
+            tempFile.delete();
+        }
+    }
+
+    private static InputStream openStream( URL resource )
+        throws IOException
+    {
+        URLConnection connection = resource.openConnection();
+        connection.setUseCaches( false );
+
+        return new BufferedInputStream( connection.getInputStream() );
+    }
+
+    // [ Inner classes ]
+
+    private static class ResourceInfo
+    {
+        private final long checksum;
+        private final long size;
+
+        private ResourceInfo( long checksum, long size )
+        {
+            this.checksum = checksum;
+            this.size = size;
+        }
+
+        public static ResourceInfo of( URL resource )
+            throws IOException
+        {
+            URLConnection connection = resource.openConnection();
+
+            if ( connection instanceof JarURLConnection )
+            {
+                connection.setUseCaches( false );
+
+                JarURLConnection jarConnection = (JarURLConnection) connection;
+                JarEntry entry = jarConnection.getJarEntry();
+
+                try
+                {
+                    if ( entry.getCrc() != -1 && entry.getSize() != -1 )
+                    {
+                        return new ResourceInfo( entry.getCrc(), entry.getSize() );
+                    }
+                }
+                finally
+                {
+                    jarConnection.getJarFile().close();
+                }
+            }
+
+            CRC32 crc = new CRC32();
+
+            try ( InputStream in = new CheckedInputStream( openStream( resource ), crc ) )
+            {
+                long size = ByteStreams.copy( in, ByteStreams.nullOutputStream() );
+
+                return new ResourceInfo( crc.getValue(), size );
+            }
+        }
+    }
+}
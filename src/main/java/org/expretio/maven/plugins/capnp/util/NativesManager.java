@@ -5,19 +5,25 @@ import static org.apache.commons.lang.StringUtils.*;
 import static org.expretio.maven.plugins.capnp.util.JavaPlatform.*;
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.XMLConfiguration;
-import org.expretio.maven.plugins.capnp.util.JavaPlatform.Os;
 
-import com.google.common.base.StandardSystemProperty;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 
@@ -39,6 +45,7 @@ public class NativesManager
         private URL capnpcJavaUrl;
         private String capnpJavaSchemaPath;
         private URL capnpJavaSchemaUrl;
+        private URL resourceUrl;
 
         public String getOsName()
         {
@@ -99,25 +106,37 @@ public class NativesManager
 
     private final List<URL> resourceUrls = new ArrayList<>();
     private final Table<String, String, NativesInfo> nativesTable = HashBasedTable.create();
+    private final Table<String, String, NativesInfo> indexedNativesTable = HashBasedTable.create();
+    private boolean allDescriptorsRegistered;
+    private boolean allDescriptorsIndexed;
 
     public NativesManager() {}
 
-    public void addResourceUrl( URL url )
+    public synchronized void addResourceUrl( URL url )
     {
         resourceUrls.add( url );
     }
 
-    public void registerAllDescriptors()
+    /**
+     * Registers descriptors of all resources. Registration happens once, so a manager may be shared by concurrent
+     * executions; the class loader used to find descriptors is closed right after, leaving no jar file open.
+     */
+    public synchronized void registerAllDescriptors()
         throws NativesManagerException
     {
-        try
+        if ( allDescriptorsRegistered )
         {
-            ClassLoader cl = new URLClassLoader( resourceUrls.toArray( new URL[ resourceUrls.size() ] ) );
+            return;
+        }
 
+        try ( URLClassLoader cl = new URLClassLoader( resourceUrls.toArray( new URL[ resourceUrls.size() ] ) ) )
+        {
             for ( URL url : findAllDescriptors( cl ) )
             {
                 registerFromDescriptor( url, cl );
             }
+
+            allDescriptorsRegistered = true;
         }
         catch ( Exception e )
         {
@@ -131,43 +150,18 @@ public class NativesManager
         registerFromDescriptor( url, Thread.currentThread().getContextClassLoader() );
     }
 
-    public void registerFromDescriptor( URL url, ClassLoader cl )
+    public synchronized void registerFromDescriptor( URL url, ClassLoader cl )
         throws NativesManagerException
     {
         try
         {
-            XMLConfiguration config = new XMLConfiguration();
-
-            try ( InputStream reader = new BufferedInputStream( url.openStream() ) )
-            {
-                config.load( reader );
-            }
-
-            String basePath = config.getString( "base-path" );
+            URLConnection connection = url.openConnection();
+            connection.setUseCaches( false );
 
-            if ( basePath == null )
+            try ( InputStream in = new BufferedInputStream( connection.getInputStream() ) )
             {
-                basePath = EMPTY;
-            }
-            else if ( !basePath.isEmpty() )
-            {
-                basePath = ( stripEnd( basePath, "/" ) + "/" );
-            }
-
-            for ( HierarchicalConfiguration nativesConfig : config.configurationsAt( "natives" ) )
-            {
-                String osName = nativesConfig.getString( "os[@name]" );
-
-                for ( HierarchicalConfiguration archConfig : nativesConfig.configurationsAt( "arch" ) )
+                for ( NativesInfo natives : readDescriptor( in ) )
                 {
-                    NativesInfo natives = new NativesInfo();
-
-                    natives.osName = osName.toUpperCase();
-                    natives.archName = getCanonicalArchitecture( archConfig.getString( "[@name]" ) ).toUpperCase();
-                    natives.capnpPath = ( basePath + archConfig.getString( "capnp-exec-path" ) );
-                    natives.capnpcJavaPath = ( basePath + archConfig.getString( "capnpc-java-exec-path" ) );
-                    natives.capnpJavaSchemaPath = ( basePath + archConfig.getString( "capnp-java-schema-path" ) );
-
                     natives.capnpUrl = cl.getResource( natives.capnpPath );
                     natives.capnpcJavaUrl = cl.getResource( natives.capnpcJavaPath );
                     natives.capnpJavaSchemaUrl = cl.getResource( natives.capnpJavaSchemaPath );
@@ -182,17 +176,94 @@ public class NativesManager
         }
     }
 
-    public NativesInfo getNativesInfo( String osName, String archName )
+    /**
+     * Indexes descriptors of all resources by platform, without looking up any natives: natives of a platform are
+     * only looked up when first requested. Resources, natives jars or directories, are read directly, through a zip
+     * file system for jars, rather than through a class loader. Indexing happens once, so a manager may be shared by
+     * concurrent executions.
+     */
+    public synchronized void indexAllDescriptors()
+        throws NativesManagerException
+    {
+        if ( allDescriptorsIndexed )
+        {
+            return;
+        }
+
+        try
+        {
+            for ( URL resourceUrl : resourceUrls )
+            {
+                try ( ResourceRoot root = ResourceRoot.open( resourceUrl ) )
+                {
+                    Path descriptor = root.resolve( CAPNP_NATIVES_DESCRIPTOR_RESOURCE_PATH );
+
+                    if ( !Files.isRegularFile( descriptor ) )
+                    {
+                        continue;
+                    }
+
+                    try ( InputStream in = new BufferedInputStream( Files.newInputStream( descriptor ) ) )
+                    {
+                        for ( NativesInfo natives : readDescriptor( in ) )
+                        {
+                            natives.resourceUrl = resourceUrl;
+
+                            if ( !indexedNativesTable.contains( natives.osName, natives.archName ) )
+                            {
+                                indexedNativesTable.put( natives.osName, natives.archName, natives );
+                            }
+                        }
+                    }
+                }
+            }
+
+            allDescriptorsIndexed = true;
+        }
+        catch ( Exception e )
+        {
+            throw new NativesManagerException( e );
+        }
+    }
+
+    public synchronized NativesInfo getNativesInfo( String osName, String archName )
+        throws NativesManagerException
     {
-        return nativesTable.get( osName, archName );
+        NativesInfo natives = nativesTable.get( osName, archName );
+
+        if ( natives == null )
+        {
+            natives = indexedNativesTable.remove( osName, archName );
+
+            if ( natives != null )
+            {
+                lookUpNatives( natives );
+
+                nativesTable.put( osName, archName, natives );
+            }
+        }
+
+        return natives;
     }
 
-    public NativesInfo getNativesInfoForCurrentPlatform()
+    /**
+     * Returns natives of all registered or indexed platforms, looking up indexed natives.
+     */
+    public synchronized List<NativesInfo> getAllNativesInfo()
+        throws NativesManagerException
     {
-        Os currentOs = Os.getCurrentOs();
-        String currentArch = getCanonicalArchitecture( StandardSystemProperty.OS_ARCH.value() ).toUpperCase();
+        for ( Table.Cell<String, String, NativesInfo> cell : new ArrayList<>( indexedNativesTable.cellSet() ) )
+        {
+            getNativesInfo( cell.getRowKey(), cell.getColumnKey() );
+        }
 
-        return nativesTable.get( currentOs.name(), currentArch );
+        return new ArrayList<>( nativesTable.values() );
+    }
+
+    public synchronized NativesInfo getNativesInfoForCurrentPlatform()
+        throws NativesManagerException
+    {
+        return getNativesInfo( getCurrentOs().name(), getCurrentArch().toUpperCase() );
     }
 
     protected List<URL> findAllDescriptors( ClassLoader cl )
@@ -200,4 +271,137 @@ public class NativesManager
     {
         return Collections.list( cl.getResources( CAPNP_NATIVES_DESCRIPTOR_RESOURCE_PATH ) );
     }
+
+    // [ Utility methods ]
+
+    /**
+     * Reads the natives of a descriptor, without looking them up.
+     */
+    private List<NativesInfo> readDescriptor( InputStream in )
+        throws Exception
+    {
+        XMLConfiguration config = new XMLConfiguration();
+
+        config.load( in );
+
+        String basePath = config.getString( "base-path" );
+
+        if ( basePath == null )
+        {
+            basePath = EMPTY;
+        }
+        else if ( !basePath.isEmpty() )
+        {
+            basePath = ( stripEnd( basePath, "/" ) + "/" );
+        }
+
+        List<NativesInfo> result = new ArrayList<>();
+
+        for ( HierarchicalConfiguration nativesConfig : config.configurationsAt( "natives" ) )
+        {
+            String osName = nativesConfig.getString( "os[@name]" );
+
+            for ( HierarchicalConfiguration archConfig : nativesConfig.configurationsAt( "arch" ) )
+            {
+                NativesInfo natives = new NativesInfo();
+
+                natives.osName = osName.toUpperCase();
+                natives.archName = getCanonicalArchitecture( archConfig.getString( "[@name]" ) ).toUpperCase();
+                natives.capnpPath = ( basePath + archConfig.getString( "capnp-exec-path" ) );
+                natives.capnpcJavaPath = ( basePath + archConfig.getString( "capnpc-java-exec-path" ) );
+                natives.capnpJavaSchemaPath = ( basePath + archConfig.getString( "capnp-java-schema-path" ) );
+
+                result.add( natives );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Looks up natives of an indexed descriptor in the resource holding the descriptor.
+     */
+    private void lookUpNatives( NativesInfo natives )
+        throws NativesManagerException
+    {
+        try ( ResourceRoot root = ResourceRoot.open( natives.resourceUrl ) )
+        {
+            natives.capnpUrl = root.getUrl( natives.capnpPath );
+            natives.capnpcJavaUrl = root.getUrl( natives.capnpcJavaPath );
+            natives.capnpJavaSchemaUrl = root.getUrl( natives.capnpJavaSchemaPath );
+        }
+        catch ( Exception e )
+        {
+            throw new NativesManagerException( e );
+        }
+    }
+
+    // [ Inner classes ]
+
+    /**
+     * Root of a resource, a jar opened as a zip file system or a directory.
+     */
+    private static class ResourceRoot
+        implements Closeable
+    {
+        private final URL url;
+        private final FileSystem fileSystem;
+        private final Path root;
+
+        private ResourceRoot( URL url, FileSystem fileSystem, Path root )
+        {
+            this.url = url;
+            this.fileSystem = fileSystem;
+            this.root = root;
+        }
+
+        public static ResourceRoot open( URL url )
+            throws IOException, URISyntaxException
+        {
+            Path path = new File( url.toURI() ).toPath();
+
+            if ( Files.isDirectory( path ) )
+            {
+                return new ResourceRoot( url, null, path );
+            }
+
+            FileSystem fileSystem = FileSystems.newFileSystem( path, (ClassLoader) null );
+
+            return new ResourceRoot( url, fileSystem, fileSystem.getPath( "/" ) );
+        }
+
+        public Path resolve( String resourcePath )
+        {
+            return root.resolve( resourcePath );
+        }
+
+        /**
+         * Returns the URL of a resource, as a class loader would, or <code>null</code> if the resource does not exist.
+         */
+        public URL getUrl( String resourcePath )
+            throws IOException
+        {
+            if ( !Files.exists( resolve( resourcePath ) ) )
+            {
+                return null;
+            }
+
+            if ( fileSystem == null )
+            {
+                return resolve( resourcePath ).toUri().toURL();
+            }
+
+            return new URL( "jar:" + url.toExternalForm() + "!/" + resourcePath );
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            if ( fileSystem != null )
+            {
+                fileSystem.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,205 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Collects lines written by processes, without ever blocking them: each stream is drained by its own thread into a
+ * buffer keeping only the last lines, so a process writing a lot of diagnostics neither fills its pipe nor exhausts
+ * memory. Streams are decoded as UTF-8, as written by capnp.
+ */
+public class ProcessOutput
+{
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private final int maxLines;
+    private final Deque<String> lines = new ArrayDeque<>();
+    private final List<Thread> drainers = new ArrayList<>();
+    private int omittedLineCount;
+
+    /**
+     * Constructor.
+     *
+     * @param maxLines maximum number of lines kept, older lines being dropped.
+     */
+    public ProcessOutput( int maxLines )
+    {
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * Starts draining given stream, which is closed when exhausted.
+     */
+    public void drain( final InputStream in )
+    {
+        Thread drainer =
+            new Thread( "capnp-output-drainer" )
+            {
+                @Override
+                public void run()
+                {
+                    try ( BufferedReader reader =
+                        new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) ) )
+                    {
+                        for ( String line = readLine( reader ); line != null; line = readLine( reader ) )
+                        {
+                            add( line );
+                        }
+                    }
+                    catch ( IOException e )
+                    {
+                        // process ended, or its stream was closed
+                    }
+                }
+            };
+
+        drainer.setDaemon( true );
+        drainer.start();
+
+        synchronized ( drainers )
+        {
+            drainers.add( drainer );
+        }
+    }
+
+    /**
+     * Waits for all drained streams to be exhausted.
+     */
+    public void await()
+        throws InterruptedException
+    {
+        await( 0 );
+    }
+
+    /**
+     * Waits for all drained streams to be exhausted, at most given time for each one. Streams of a killed process may
+     * be kept open by its surviving descendants.
+     *
+     * @param millis maximum time to wait for each stream, zero meaning forever.
+     */
+    public void await( long millis )
+        throws InterruptedException
+    {
+        List<Thread> threads;
+
+        synchronized ( drainers )
+        {
+            threads = new ArrayList<>( drainers );
+            drainers.clear();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join( millis );
+        }
+    }
+
+    /**
+     * Returns collected lines, preceded by a notice when older lines were dropped.
+     */
+    public synchronized List<String> getLines()
+    {
+        List<String> result = new ArrayList<>( lines.size() + 1 );
+
+        if ( omittedLineCount > 0 )
+        {
+            result.add( "[" + omittedLineCount + " line(s) omitted]" );
+        }
+
+        result.addAll( lines );
+
+        return result;
+    }
+
+    // [ Utility methods ]
+
+    private synchronized void add( String line )
+    {
+        if ( lines.size() >= maxLines )
+        {
+            lines.poll();
+            omittedLineCount++;
+        }
+
+        lines.add( line );
+    }
+
+    /**
+     * Reads a line terminated by a line feed, a carriage return or both, keeping at most
+     * <code>MAX_LINE_LENGTH</code> characters of it, so a runaway line is never held in memory.
+     *
+     * @return the line, ending with an ellipsis when truncated, or <code>null</code> at end of stream.
+     */
+    private static String readLine( BufferedReader reader )
+        throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        boolean truncated = false;
+        int c;
+
+        while ( ( c = reader.read() ) != -1 )
+        {
+            if ( c == '\n' )
+            {
+                return toLine( line, truncated );
+            }
+
+            if ( c == '\r' )
+            {
+                reader.mark( 1 );
+
+                if ( reader.read() != '\n' )
+                {
+                    reader.reset();
+                }
+
+                return toLine( line, truncated );
+            }
+
+            if ( line.length() < MAX_LINE_LENGTH )
+            {
+                line.append( (char) c );
+            }
+            else
+            {
+                truncated = true;
+            }
+        }
+
+        return ( line.length() == 0 ) ? null : toLine( line, truncated );
+    }
+
+    private static String toLine( StringBuilder line, boolean truncated )
+    {
+        return truncated ? line.append( "..." ).toString() : line.toString();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Process utilities.
+ */
+public final class Processes
+{
+    private static final Method TO_HANDLE = getMethod( Process.class, "toHandle" );
+    private static final Method DESCENDANTS = getMethod( "java.lang.ProcessHandle", "descendants" );
+    private static final Method DESTROY_FORCIBLY = getMethod( "java.lang.ProcessHandle", "destroyForcibly" );
+    private static final Method ITERATOR = getMethod( "java.util.stream.BaseStream", "iterator" );
+
+    private Processes()
+    {
+    }
+
+    /**
+     * Forcibly kills a process along with all its descendants, such as capnp plugins. Descendants can only be found on
+     * Java 9 and later: on earlier versions, only the process itself is killed.
+     */
+    public static void destroyTree( Process process )
+    {
+        if ( TO_HANDLE != null && DESCENDANTS != null && DESTROY_FORCIBLY != null && ITERATOR != null )
+        {
+            try
+            {
+                Object handle = TO_HANDLE.invoke( process );
+                List<Object> descendants = new ArrayList<>();
+
+                // collected first, as descendants are no longer attached to the process once it is killed
+                for ( Iterator<?> i = (Iterator<?>) ITERATOR.invoke( DESCENDANTS.invoke( handle ) ); i.hasNext(); )
+                {
+                    descendants.add( i.next() );
+                }
+
+                DESTROY_FORCIBLY.invoke( handle );
+
+                for ( Object descendant : descendants )
+                {
+                    DESTROY_FORCIBLY.invoke( descendant );
+                }
+
+                return;
+            }
+            catch ( ReflectiveOperationException e )
+            {
+                // fallback below
+            }
+        }
+
+        process.destroy();
+    }
+
+    // [ Utility methods ]
+
+    private static Method getMethod( String className, String name )
+    {
+        try
+        {
+            return getMethod( Class.forName( className ), name );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return null;
+        }
+    }
+
+    private static Method getMethod( Class<?> type, String name )
+    {
+        try
+        {
+            return type.getMethod( name );
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Cache of schemas extracted from schema artifacts, shared by all modules and builds of a user.
+ * <p>
+ * Schemas of an artifact are stored under <code>&lt;groupId&gt;/&lt;artifactId&gt;/&lt;version&gt;</code>, next to
+ * a file holding the checksum of the extracted jar. A rebuilt snapshot replaces the schemas of its version, keeping
+ * their directory, so importing schemas only become stale if imported schemas actually changed, and extracted
+ * snapshots do not accumulate. Extraction writes to a temporary directory, renamed into place while holding the lock
+ * of the artifact directory, so concurrent builds never see partially extracted schemas.
+ */
+public class SchemasCache
+{
+    private static final String META_INF = "META-INF/";
+
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final String CHECKSUM_FILE_EXTENSION = ".sha1";
+
+    private final File directory;
+
+    public SchemasCache( File directory )
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the directory of schemas extracted from a jar, extracting them first if the directory is missing or
+     * holds schemas of a jar with another checksum.
+     *
+     * @param jarFile schema artifact jar.
+     * @param groupId artifact group id.
+     * @param artifactId artifact id.
+     * @param version artifact version.
+     */
+    public File get( File jarFile, String groupId, String artifactId, String version )
+        throws IOException
+    {
+        String checksum = com.google.common.io.Files.hash( jarFile, Hashing.sha1() ).toString();
+
+        File artifactDirectory = new File( new File( directory, groupId ), artifactId );
+        File entryDirectory = new File( artifactDirectory, version );
+        File checksumFile = new File( artifactDirectory, version + CHECKSUM_FILE_EXTENSION );
+
+        if ( isExtracted( entryDirectory, checksumFile, checksum ) )
+        {
+            return entryDirectory;
+        }
+
+        artifactDirectory.mkdirs();
+
+        DirectoryLock lock = lock( artifactDirectory );
+
+        try
+        {
+            if ( !isExtracted( entryDirectory, checksumFile, checksum ) )
+            {
+                replace( jarFile, artifactDirectory, entryDirectory, checksumFile, checksum );
+            }
+        }
+        finally
+        {
+            lock.close();
+        }
+
+        return entryDirectory;
+    }
+
+    // [ Utility methods ]
+
+    private static boolean isExtracted( File entryDirectory, File checksumFile, String checksum )
+        throws IOException
+    {
+        return entryDirectory.isDirectory() && checksumFile.isFile()
+            && checksum.equals( new String( Files.readAllBytes( checksumFile.toPath() ), StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Extracts a jar into a temporary directory, then swaps it with the entry directory. The checksum file is deleted
+     * first and written last, so an interrupted replacement is extracted again.
+     */
+    private static void replace(
+            File jarFile,
+            File artifactDirectory,
+            File entryDirectory,
+            File checksumFile,
+            String checksum )
+        throws IOException
+    {
+        Path tempDirectory = Files.createTempDirectory( artifactDirectory.toPath(), TEMP_PREFIX );
+        Path previousDirectory = artifactDirectory.toPath().resolve( TEMP_PREFIX + entryDirectory.getName() );
+
+        try
+        {
+            extract( jarFile, tempDirectory.toFile() );
+
+            Files.deleteIfExists( checksumFile.toPath() );
+
+            if ( entryDirectory.exists() )
+            {
+                FileUtils.deleteDirectory( previousDirectory.toFile() );
+
+                Files.move( entryDirectory.toPath(), previousDirectory, StandardCopyOption.ATOMIC_MOVE );
+            }
+
+            Files.move( tempDirectory, entryDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE );
+
+            Path tempChecksumFile = Files.createTempFile( artifactDirectory.toPath(), TEMP_PREFIX, null );
+            Files.write( tempChecksumFile, checksum.getBytes( StandardCharsets.UTF_8 ) );
+            Files.move(
+                tempChecksumFile,
+                checksumFile.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( tempDirectory.toFile() );
+            FileUtils.deleteDirectory( previousDirectory.toFile() );
+        }
+    }
+
+    private static DirectoryLock lock( File artifactDirectory )
+        throws IOException
+    {
+        try
+        {
+            return DirectoryLock.lock( artifactDirectory );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException( "Interrupted while waiting for schemas cache: " + artifactDirectory );
+        }
+    }
+
+    private static void extract( File jarFile, File targetDirectory )
+        throws IOException
+    {
+        String targetPath = targetDirectory.getCanonicalPath() + File.separator;
+
+        try ( JarInputStream in =
+            new JarInputStream( new BufferedInputStream( Files.newInputStream( jarFile.toPath() ) ) ) )
+        {
+            JarEntry entry;
+
+            while ( ( entry = in.getNextJarEntry() ) != null )
+            {
+                if ( entry.isDirectory() || entry.getName().startsWith( META_INF ) )
+                {
+                    continue;
+                }
+
+                File file = new File( targetDirectory, entry.getName() );
+
+                if ( !file.getCanonicalPath().startsWith( targetPath ) )
+                {
+                    throw new IOException( "Entry outside of target directory: " + entry.getName() + " in " + jarFile );
+                }
+
+                file.getParentFile().mkdirs();
+
+                try ( OutputStream out = new BufferedOutputStream( Files.newOutputStream( file.toPath() ) ) )
+                {
+                    ByteStreams.copy( in, out );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Content-addressed cache of generated files, shared by workspaces of a machine.
+ * <p>
+ * Each entry is a directory named by its key, holding generated files as laid out in output directory. Entries are
+ * written aside and atomically renamed, and are touched when used; when the cache grows beyond its maximum size, least
+ * recently used entries are evicted. The cache is only walked for eviction once enough has been stored since the last
+ * walk, by any build, to possibly exceed its maximum size. Readers lock the cache so that entries are not evicted while
+ * being copied.
+ */
+public class SourcesCache
+{
+    private final File directory;
+    private final LruEviction eviction;
+
+    /**
+     * Constructor.
+     *
+     * @param directory cache directory.
+     * @param maxSize maximum size of cache, in bytes.
+     */
+    public SourcesCache( File directory, long maxSize )
+    {
+        this.directory = directory;
+        this.eviction = new LruEviction( directory, maxSize );
+    }
+
+    /**
+     * Returns the directory of an entry, or <code>null</code> if no entry exists for given key.
+     */
+    public File get( String key )
+    {
+        File entryDirectory = getEntryDirectory( key );
+
+        if ( !entryDirectory.isDirectory() )
+        {
+            return null;
+        }
+
+        entryDirectory.setLastModified( System.currentTimeMillis() );
+
+        return entryDirectory;
+    }
+
+    /**
+     * Locks the cache against eviction, by this and other processes. Entries returned by {@link #get(String)} while
+     * the lock is held stay complete until it is released.
+     */
+    public DirectoryLock lock()
+        throws IOException
+    {
+        return eviction.lock();
+    }
+
+    /**
+     * Stores files of given directory as an entry. An existing entry for the same key is kept as is.
+     */
+    public void put( String key, File generatedDirectory )
+        throws IOException
+    {
+        File entryDirectory = getEntryDirectory( key );
+
+        if ( entryDirectory.isDirectory() )
+        {
+            return;
+        }
+
+        entryDirectory.getParentFile().mkdirs();
+
+        Path tempDirectory =
+            Files.createTempDirectory( entryDirectory.getParentFile().toPath(), LruEviction.TEMP_PREFIX + key );
+
+        try
+        {
+            if ( generatedDirectory.isDirectory() )
+            {
+                FileUtils.copyDirectoryStructure( generatedDirectory, tempDirectory.toFile() );
+            }
+
+            long size = LruEviction.size( tempDirectory );
+
+            Files.move( tempDirectory, entryDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE );
+
+            eviction.stored( size );
+        }
+        catch ( FileAlreadyExistsException | DirectoryNotEmptyException | AtomicMoveNotSupportedException e )
+        {
+            // stored concurrently by another build
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( tempDirectory.toFile() );
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until cache size is below its maximum size. The cache is walked only when the
+     * size stored since the last walk exceeds a part of its maximum size.
+     */
+    public void evict()
+        throws IOException
+    {
+        eviction.evict();
+    }
+
+    // [ Utility methods ]
+
+    private File getEntryDirectory( String key )
+    {
+        return new File( new File( directory, key.substring( 0, 2 ) ), key );
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.expretio.maven.plugins.capnp.CapnpCompiler.Batch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CapnpCompilerTest
+{
+    private static final List<String> SCHEMAS = Arrays.asList( "a.capnp", "b.capnp", "c.capnp", "d.capnp", "e.capnp" );
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void partitionsSchemasByBatchSize()
+        throws Exception
+    {
+        List<Batch> batches = builder().setBatchSize( 2 ).build().partition();
+
+        assertThat( batches ).hasSize( 3 );
+        assertThat( batches.get( 0 ).getSchemas() ).containsExactly( "a.capnp", "b.capnp" );
+        assertThat( batches.get( 1 ).getSchemas() ).containsExactly( "c.capnp", "d.capnp" );
+        assertThat( batches.get( 2 ).getSchemas() ).containsExactly( "e.capnp" );
+    }
+
+    @Test
+    public void spreadsUnboundedBatchesOverWorkers()
+        throws Exception
+    {
+        List<Batch> batches = builder().setBatchSize( 0 ).setParallelism( 2 ).build().partition();
+
+        assertThat( batches ).hasSize( 2 );
+        assertThat( batches.get( 0 ).getSchemas() ).containsExactly( "a.capnp", "b.capnp", "c.capnp" );
+        assertThat( batches.get( 1 ).getSchemas() ).containsExactly( "d.capnp", "e.capnp" );
+    }
+
+    @Test
+    public void boundsBatchesByCommandLength()
+        throws Exception
+    {
+        List<Batch> batches = builder().setBatchSize( 0 ).setMaxCommandLength( 1 ).build().partition();
+
+        assertThat( batches ).hasSize( SCHEMAS.size() );
+
+        for ( int i = 0; i < SCHEMAS.size(); i++ )
+        {
+            assertThat( batches.get( i ).getSchemas() ).containsExactly( SCHEMAS.get( i ) );
+        }
+    }
+
+    @Test
+    public void generatesBatchesInOutputDirectory()
+        throws Exception
+    {
+        File outputDirectory = new File( folder.getRoot(), "output" );
+
+        for ( Batch batch : builder().setBatchSize( 2 ).build().partition() )
+        {
+            assertThat( batch.getOutputDirectory() ).isEqualTo( outputDirectory );
+        }
+    }
+
+    @Test
+    public void generatesEachBatchInItsOwnGenerationDirectory()
+        throws Exception
+    {
+        File generationDirectory = new File( folder.getRoot(), "generation" );
+
+        List<Batch> batches =
+            builder().setBatchSize( 2 ).setGenerationDirectory( generationDirectory ).build().partition();
+
+        assertThat( batches.get( 0 ).getOutputDirectory() ).isEqualTo( new File( generationDirectory, "0" ) );
+        assertThat( batches.get( 1 ).getOutputDirectory() ).isEqualTo( new File( generationDirectory, "1" ) );
+        assertThat( batches.get( 2 ).getOutputDirectory() ).isEqualTo( new File( generationDirectory, "2" ) );
+    }
+
+    @Test
+    public void matchesDiagnosticWithPosition()
+    {
+        Matcher matcher =
+            CapnpCompiler.DIAGNOSTIC_PATTERN.matcher( "org/foo.capnp:12:3-8: error: Parse error: expected ';'." );
+
+        assertThat( matcher.matches() ).isTrue();
+        assertThat( matcher.group( 1 ) ).isEqualTo( "org/foo.capnp" );
+        assertThat( matcher.group( 2 ) ).isEqualTo( "12" );
+        assertThat( matcher.group( 3 ) ).isEqualTo( "3" );
+        assertThat( matcher.group( 4 ) ).isEqualTo( "error" );
+        assertThat( matcher.group( 5 ) ).isEqualTo( "Parse error: expected ';'." );
+    }
+
+    @Test
+    public void matchesDiagnosticWithoutPosition()
+    {
+        Matcher matcher = CapnpCompiler.DIAGNOSTIC_PATTERN.matcher( "/tmp/foo.capnp: warning: Unused import." );
+
+        assertThat( matcher.matches() ).isTrue();
+        assertThat( matcher.group( 1 ) ).isEqualTo( "/tmp/foo.capnp" );
+        assertThat( matcher.group( 2 ) ).isNull();
+        assertThat( matcher.group( 3 ) ).isNull();
+        assertThat( matcher.group( 4 ) ).isEqualTo( "warning" );
+        assertThat( matcher.group( 5 ) ).isEqualTo( "Unused import." );
+    }
+
+    @Test
+    public void ignoresOtherOutput()
+    {
+        assertThat( CapnpCompiler.DIAGNOSTIC_PATTERN.matcher( "compiling org/foo.capnp" ).matches() ).isFalse();
+        assertThat( CapnpCompiler.DIAGNOSTIC_PATTERN.matcher( "org/foo.capnp:12:3: note: here" ).matches() ).isFalse();
+    }
+
+    private CapnpCompiler.Builder builder()
+    {
+        File nativesDirectory = new File( folder.getRoot(), "natives" );
+
+        return CapnpCompiler.builder()
+            .setOutputDirectory( new File( folder.getRoot(), "output" ) )
+            .setSchemaDirectory( new File( folder.getRoot(), "schemas" ) )
+            .setWorkDirectory( new File( folder.getRoot(), "work" ) )
+            .setCapnpFile( new File( nativesDirectory, "capnp" ) )
+            .setCapnpcJavaFile( new File( nativesDirectory, "capnpc-java" ) )
+            .setCapnpJavaSchemaFile( new File( nativesDirectory, "capnp/java.capnp" ) )
+            .setStagingMode( StagingMode.NONE )
+            .setLog( new SystemStreamLog() )
+            .setTimings( new Timings() )
+            .addSchemas( SCHEMAS );
+    }
+}
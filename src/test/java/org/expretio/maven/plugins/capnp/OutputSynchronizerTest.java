@@ -0,0 +1,153 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutputSynchronizerTest
+{
+    private static final long OLD_TIME = 1000000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File outputDirectory;
+    private File generatedDirectory;
+    private OutputSynchronizer synchronizer;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        outputDirectory = folder.newFolder( "output" );
+        generatedDirectory = folder.newFolder( "generated" );
+        synchronizer = new OutputSynchronizer( outputDirectory );
+    }
+
+    @Test
+    public void movesNewAndChangedFiles()
+        throws IOException
+    {
+        write( outputDirectory, "a/Changed.java", "old" );
+        write( generatedDirectory, "a/Changed.java", "new" );
+        write( generatedDirectory, "a/b/Added.java", "added" );
+
+        OutputSynchronizer.Result result = synchronizer.synchronize( generatedDirectory );
+
+        assertThat( new File( outputDirectory, "a/Changed.java" ) ).hasContent( "new" );
+        assertThat( new File( outputDirectory, "a/b/Added.java" ) ).hasContent( "added" );
+        assertThat( new File( generatedDirectory, "a/b/Added.java" ) ).doesNotExist();
+        assertThat( result.getGeneratedFiles() ).containsOnly( "a/Changed.java", "a/b/Added.java" );
+        assertThat( result.getChangedFiles() )
+            .containsOnly(
+                new File( outputDirectory, "a/Changed.java" ),
+                new File( outputDirectory, "a/b/Added.java" ) );
+    }
+
+    @Test
+    public void keepsUnchangedFilesUntouched()
+        throws IOException
+    {
+        File unchanged = write( outputDirectory, "a/Unchanged.java", "same" );
+        unchanged.setLastModified( OLD_TIME );
+        write( generatedDirectory, "a/Unchanged.java", "same" );
+
+        OutputSynchronizer.Result result = synchronizer.synchronize( generatedDirectory );
+
+        assertThat( unchanged.lastModified() ).isEqualTo( OLD_TIME );
+        assertThat( result.getGeneratedFiles() ).containsOnly( "a/Unchanged.java" );
+        assertThat( result.getChangedFiles() ).isEmpty();
+    }
+
+    @Test
+    public void copiesFilesLeavingSourceInPlace()
+        throws IOException
+    {
+        write( generatedDirectory, "a/Cached.java", "cached" );
+
+        OutputSynchronizer.Result result = synchronizer.copy( generatedDirectory );
+
+        assertThat( new File( outputDirectory, "a/Cached.java" ) ).hasContent( "cached" );
+        assertThat( new File( generatedDirectory, "a/Cached.java" ) ).hasContent( "cached" );
+        assertThat( result.getChangedFiles() ).containsOnly( new File( outputDirectory, "a/Cached.java" ) );
+    }
+
+    @Test
+    public void ignoresMissingGeneratedDirectory()
+        throws IOException
+    {
+        OutputSynchronizer.Result result = synchronizer.synchronize( new File( folder.getRoot(), "missing" ) );
+
+        assertThat( result.getGeneratedFiles() ).isEmpty();
+        assertThat( result.getChangedFiles() ).isEmpty();
+    }
+
+    @Test
+    public void deletesFilesAndEmptiedDirectories()
+        throws IOException
+    {
+        write( outputDirectory, "a/b/Removed.java", "removed" );
+        write( outputDirectory, "a/Kept.java", "kept" );
+
+        assertThat( synchronizer.delete( Arrays.asList( "a/b/Removed.java", "a/Missing.java" ) ) )
+            .containsOnly( new File( outputDirectory, "a/b/Removed.java" ) );
+
+        assertThat( new File( outputDirectory, "a/b" ) ).doesNotExist();
+        assertThat( new File( outputDirectory, "a/Kept.java" ) ).hasContent( "kept" );
+        assertThat( outputDirectory ).isDirectory();
+    }
+
+    @Test
+    public void keepsOutputDirectoryWhenEmptied()
+        throws IOException
+    {
+        write( outputDirectory, "Removed.java", "removed" );
+
+        synchronizer.delete( Collections.singletonList( "Removed.java" ) );
+
+        assertThat( outputDirectory ).isDirectory();
+    }
+
+    private static File write( File directory, String path, String content )
+        throws IOException
+    {
+        File file = new File( directory, path );
+        file.getParentFile().mkdirs();
+
+        Files.write( file.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+
+        return file;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SchemaFinderTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File schemaDirectory;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        schemaDirectory = folder.newFolder( "schemas" );
+
+        for ( String path : new String[] {
+                "root.capnp",
+                "notes.txt",
+                "foo/foo.capnp",
+                "foo/bar/bar.capnp",
+                "foo/bar/baz/baz.capnp",
+                "qux/qux.capnp",
+                "qux/test/qux-test.capnp" } )
+        {
+            File file = new File( schemaDirectory, path );
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+        }
+    }
+
+    @Test
+    public void findsAllSchemasSorted()
+        throws IOException
+    {
+        assertFound(
+            new SchemaFinder( schemaDirectory, "capnp" ),
+            "foo/bar/bar.capnp",
+            "foo/bar/baz/baz.capnp",
+            "foo/foo.capnp",
+            "qux/qux.capnp",
+            "qux/test/qux-test.capnp",
+            "root.capnp" );
+    }
+
+    @Test
+    public void findsIncludedSchemas()
+        throws IOException
+    {
+        assertFound(
+            finder( Arrays.asList( "foo/**", "*.capnp" ), Collections.<String> emptyList() ),
+            "foo/bar/bar.capnp",
+            "foo/bar/baz/baz.capnp",
+            "foo/foo.capnp",
+            "root.capnp" );
+    }
+
+    @Test
+    public void skipsExcludedSchemas()
+        throws IOException
+    {
+        assertFound(
+            finder( Collections.<String> emptyList(), Arrays.asList( "**/*-test.capnp", "root.capnp" ) ),
+            "foo/bar/bar.capnp",
+            "foo/bar/baz/baz.capnp",
+            "foo/foo.capnp",
+            "qux/qux.capnp" );
+    }
+
+    @Test
+    public void skipsWholeDirectoryExcludedByDoubleStarPattern()
+        throws IOException
+    {
+        assertFound(
+            finder( Collections.<String> emptyList(), Arrays.asList( "foo/**" ) ),
+            "qux/qux.capnp",
+            "qux/test/qux-test.capnp",
+            "root.capnp" );
+    }
+
+    @Test
+    public void doesNotListDirectoryExcludedByDoubleStarPattern()
+        throws IOException
+    {
+        File excludedDirectory = new File( schemaDirectory, "foo" );
+        excludedDirectory.setReadable( false );
+
+        try
+        {
+            assumeFalse( "Unreadable directories are readable by this user.", excludedDirectory.canRead() );
+
+            assertFound(
+                finder( Collections.<String> emptyList(), Arrays.asList( "foo/**" ) ),
+                "qux/qux.capnp",
+                "qux/test/qux-test.capnp",
+                "root.capnp" );
+        }
+        finally
+        {
+            excludedDirectory.setReadable( true );
+        }
+    }
+
+    @Test
+    public void skipsSubtreeOfExcludedDirectory()
+        throws IOException
+    {
+        // foo/* matches directory foo/bar, whose subtree is not walked, and file foo/foo.capnp
+        assertFound(
+            finder( Collections.<String> emptyList(), Arrays.asList( "foo/*" ) ),
+            "qux/qux.capnp",
+            "qux/test/qux-test.capnp",
+            "root.capnp" );
+    }
+
+    @Test
+    public void findsNothingInMissingDirectory()
+        throws IOException
+    {
+        SchemaFinder finder = new SchemaFinder( new File( folder.getRoot(), "missing" ), "capnp" );
+
+        assertThat( finder.find() ).isEmpty();
+        assertThat( finder.find( 4 ) ).isEmpty();
+    }
+
+    private SchemaFinder finder( List<String> includes, List<String> excludes )
+    {
+        return new SchemaFinder( schemaDirectory, "capnp", includes, excludes );
+    }
+
+    /**
+     * Asserts that both the sequential and the parallel walks find given schemas, in order.
+     */
+    private static void assertFound( SchemaFinder finder, String... schemas )
+        throws IOException
+    {
+        assertThat( finder.find() ).containsExactly( schemas );
+        assertThat( finder.find( 4 ) ).containsExactly( schemas );
+    }
+}
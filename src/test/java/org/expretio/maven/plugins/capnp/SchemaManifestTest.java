@@ -0,0 +1,266 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.expretio.maven.plugins.capnp.util.ImportScanner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SchemaManifestTest
+{
+    private static final String CONFIGURATION = "configuration";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File schemaDirectory;
+    private ImportScanner scanner;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        schemaDirectory = folder.newFolder( "schemas" );
+        scanner = new ImportScanner( Collections.singletonList( schemaDirectory ) );
+
+        write( "a.capnp", "struct A {}" );
+        write( "b.capnp", "using import \"a.capnp\".A;" );
+        write( "c.capnp", "using import \"/b.capnp\";" );
+        write( "d.capnp", "struct D {}" );
+    }
+
+    @Test
+    public void marksAllSchemasStaleWithoutPreviousManifest()
+        throws IOException
+    {
+        SchemaManifest manifest = manifest( CONFIGURATION );
+
+        assertThat( manifest.getStaleFiles( null ) ).containsOnly( paths( "a", "b", "c", "d" ) );
+    }
+
+    @Test
+    public void marksNoSchemaStaleWhenNothingChanged()
+        throws IOException
+    {
+        SchemaManifest previous = manifest( CONFIGURATION );
+
+        assertThat( manifest( CONFIGURATION ).getStaleFiles( previous ) ).isEmpty();
+    }
+
+    @Test
+    public void marksDependentsOfChangedSchemaStale()
+        throws IOException
+    {
+        SchemaManifest previous = manifest( CONFIGURATION );
+
+        write( "a.capnp", "struct A { a @0 :Int32; }" );
+
+        SchemaManifest manifest = manifest( CONFIGURATION );
+
+        assertThat( manifest.getStaleFiles( previous ) ).containsOnly( paths( "a", "b", "c" ) );
+        assertThat( manifest.isStale( schema( "c" ), manifest.getStaleFiles( previous ) ) ).isTrue();
+        assertThat( manifest.isStale( schema( "d" ), manifest.getStaleFiles( previous ) ) ).isFalse();
+    }
+
+    @Test
+    public void marksSchemaStaleWhenItsImportsChange()
+        throws IOException
+    {
+        SchemaManifest previous = manifest( CONFIGURATION );
+
+        write( "c.capnp", "using import \"/d.capnp\";" );
+
+        assertThat( manifest( CONFIGURATION ).getStaleFiles( previous ) ).containsOnly( paths( "c" ) );
+    }
+
+    @Test
+    public void marksAllSchemasStaleWhenConfigurationChanges()
+        throws IOException
+    {
+        SchemaManifest previous = manifest( CONFIGURATION );
+
+        assertThat( manifest( "other" ).getStaleFiles( previous ) ).containsOnly( paths( "a", "b", "c", "d" ) );
+    }
+
+    @Test
+    public void keepsFingerprintsThroughStorage()
+        throws IOException
+    {
+        File file = new File( folder.getRoot(), "manifest.properties" );
+
+        SchemaManifest stored = manifest( CONFIGURATION );
+        stored.inheritOutputs( null );
+        stored.store( file );
+
+        SchemaManifest previous = SchemaManifest.load( file );
+
+        assertThat( previous.getConfiguration() ).isEqualTo( CONFIGURATION );
+        assertThat( manifest( CONFIGURATION ).getStaleFiles( previous ) ).isEmpty();
+        assertThat( manifest( CONFIGURATION ).getFingerprint( schema( "c" ) ) )
+            .isEqualTo( previous.getFingerprint( schema( "c" ) ) );
+    }
+
+    @Test
+    public void keepsContentFingerprintInOtherDirectory()
+        throws IOException
+    {
+        File otherDirectory = folder.newFolder( "other" );
+
+        for ( String name : Arrays.asList( "a", "b", "c", "d" ) )
+        {
+            Files.copy( schema( name ).toPath(), new File( otherDirectory, name + ".capnp" ).toPath() );
+        }
+
+        SchemaManifest other = new SchemaManifest( CONFIGURATION );
+        other.addSchema(
+            new File( otherDirectory, "c.capnp" ),
+            null,
+            new ImportScanner( Collections.singletonList( otherDirectory ) ) );
+
+        assertThat( other.getContentFingerprint( new File( otherDirectory, "c.capnp" ) ) )
+            .isEqualTo( manifest( CONFIGURATION ).getContentFingerprint( schema( "c" ) ) );
+    }
+
+    @Test
+    public void changesContentFingerprintWhenImportedContentsAreSwapped()
+        throws IOException
+    {
+        write( "e.capnp", "using import \"/a.capnp\";\nusing import \"/d.capnp\";" );
+
+        String fingerprint = manifest( CONFIGURATION, "e" ).getContentFingerprint( schema( "e" ) );
+
+        write( "a.capnp", "struct D {}" );
+        write( "d.capnp", "struct A {}" );
+
+        assertThat( manifest( CONFIGURATION, "e" ).getContentFingerprint( schema( "e" ) ) ).isNotEqualTo( fingerprint );
+    }
+
+    @Test
+    public void ignoresManifestOfUnknownFormat()
+        throws IOException
+    {
+        File file = new File( folder.getRoot(), "manifest.properties" );
+        Files.write( file.toPath(), "version=0\n".getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( SchemaManifest.load( file ) ).isNull();
+        assertThat( SchemaManifest.load( new File( folder.getRoot(), "missing.properties" ) ) ).isNull();
+    }
+
+    @Test
+    public void returnsOutputsOfRemovedSchemas()
+        throws IOException
+    {
+        SchemaManifest previous = manifest( CONFIGURATION );
+        previous.setOutputs( schema( "c" ), Arrays.asList( "C.java" ) );
+        previous.setOutputs( schema( "d" ), Arrays.asList( "D.java" ) );
+        previous.inheritOutputs( null );
+
+        SchemaManifest manifest = manifest( CONFIGURATION, "a", "b", "c" );
+        manifest.inheritOutputs( previous );
+
+        assertThat( manifest.getStaleOutputs( previous ) ).containsOnly( "D.java" );
+        assertThat( manifest.getStaleOutputs( null ) ).isEmpty();
+        assertThat( manifest.getStaleFiles( previous ) ).isEmpty();
+    }
+
+    @Test
+    public void marksSchemasSharingOutputsOfRemovedSchemaStale()
+        throws IOException
+    {
+        SchemaManifest previous = manifest( CONFIGURATION );
+        previous.setOutputs( schema( "c" ), Arrays.asList( "Shared.java", "C.java" ) );
+        previous.setOutputs( schema( "d" ), Arrays.asList( "Shared.java" ) );
+        previous.inheritOutputs( null );
+
+        SchemaManifest manifest = manifest( CONFIGURATION, "a", "b", "c" );
+
+        assertThat( manifest.getStaleFiles( previous ) ).containsOnly( paths( "c" ) );
+    }
+
+    @Test
+    public void returnsSchemasWithMissingOutputs()
+        throws IOException
+    {
+        File outputDirectory = folder.newFolder( "output" );
+        Files.write( new File( outputDirectory, "A.java" ).toPath(), new byte[ 0 ] );
+
+        SchemaManifest manifest = manifest( CONFIGURATION, "a", "d" );
+        manifest.setOutputs( schema( "a" ), Arrays.asList( "A.java" ) );
+        manifest.setOutputs( schema( "d" ), Arrays.asList( "A.java", "D.java" ) );
+
+        assertThat( manifest.getSchemasWithMissingOutputs( outputDirectory ) ).containsOnly( paths( "d" ) );
+    }
+
+    private SchemaManifest manifest( String configuration )
+        throws IOException
+    {
+        return manifest( configuration, "a", "b", "c", "d" );
+    }
+
+    private SchemaManifest manifest( String configuration, String... names )
+        throws IOException
+    {
+        SchemaManifest manifest = new SchemaManifest( configuration );
+
+        for ( String name : names )
+        {
+            manifest.addSchema( schema( name ), null, scanner );
+        }
+
+        return manifest;
+    }
+
+    private File schema( String name )
+    {
+        return new File( schemaDirectory, name + ".capnp" );
+    }
+
+    private String[] paths( String... names )
+    {
+        String[] paths = new String[ names.length ];
+
+        for ( int i = 0; i < names.length; i++ )
+        {
+            paths[ i ] = schema( names[ i ] ).getAbsoluteFile().toPath().normalize().toString();
+        }
+
+        return paths;
+    }
+
+    private void write( String name, String content )
+        throws IOException
+    {
+        Files.write( new File( schemaDirectory, name ).toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TimingsTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsSameNamedSchemasOfDistinctSets()
+        throws IOException
+    {
+        File baseDirectory = folder.getRoot();
+        Timings timings = new Timings( baseDirectory );
+
+        timings.addSchema( new File( baseDirectory, "src/main/capnp" ), "foo.capnp", 1000000 );
+        timings.addSchema( new File( baseDirectory, "src/test/capnp" ), "foo.capnp", 2000000 );
+
+        assertThat( write( timings ) )
+            .contains( "\"src/main/capnp:foo.capnp\": 1" )
+            .contains( "\"src/test/capnp:foo.capnp\": 2" );
+    }
+
+    @Test
+    public void sumsStagesEnteredSeveralTimes()
+        throws IOException
+    {
+        Timings timings = new Timings();
+
+        timings.addStage( "staging", 1000000 );
+        timings.addStage( "staging", 2000000 );
+
+        assertThat( timings.getSummary() ).contains( "(staging 3 ms)" );
+        assertThat( write( timings ) ).contains( "\"staging\": 3" );
+    }
+
+    private String write( Timings timings )
+        throws IOException
+    {
+        File report = new File( folder.getRoot(), "timings.json" );
+
+        timings.write( report, "test" );
+
+        return new String( Files.readAllBytes( report.toPath() ), StandardCharsets.UTF_8 );
+    }
+}
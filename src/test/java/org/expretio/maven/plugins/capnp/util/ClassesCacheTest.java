@@ -0,0 +1,182 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassesCacheTest
+{
+    private static final String KEY = "0123456789abcdef0123456789abcdef01234567";
+    private static final String OTHER_KEY = "fedcba9876543210fedcba9876543210fedcba98";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void extractsStoredEntry()
+        throws IOException
+    {
+        ClassesCache cache = new ClassesCache( folder.newFolder( "cache" ), Long.MAX_VALUE );
+
+        cache.put( KEY, compiled( "a/Foo.class", "foo" ) );
+
+        File jar = cache.get( KEY );
+        File classesDirectory = folder.newFolder( "classes" );
+        ClassesCache.extract( jar, classesDirectory );
+
+        assertThat( jar ).isFile();
+        assertThat( new File( classesDirectory, "a/Foo.class" ) ).hasContent( "foo" );
+        assertThat( cache.get( OTHER_KEY ) ).isNull();
+    }
+
+    @Test
+    public void keepsExistingEntry()
+        throws IOException
+    {
+        ClassesCache cache = new ClassesCache( folder.newFolder( "cache" ), Long.MAX_VALUE );
+
+        cache.put( KEY, compiled( "a/Foo.class", "foo" ) );
+        cache.put( KEY, compiled( "a/Foo.class", "bar" ) );
+
+        File classesDirectory = folder.newFolder( "classes" );
+        ClassesCache.extract( cache.get( KEY ), classesDirectory );
+
+        assertThat( new File( classesDirectory, "a/Foo.class" ) ).hasContent( "foo" );
+        assertThat( cache.get( KEY ).getParentFile().list() ).containsExactly( KEY + ".jar" );
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries()
+        throws IOException
+    {
+        File directory = folder.newFolder( "cache" );
+        long entrySize = storeEntry( directory, KEY );
+        new File( directory, KEY.substring( 0, 2 ) + "/" + KEY + ".jar" ).setLastModified( 1000 );
+
+        ClassesCache cache = new ClassesCache( directory, entrySize * 3 / 2 );
+        cache.put( OTHER_KEY, compiled( "Bar.class", "0123456789" ) );
+        cache.evict();
+
+        assertThat( cache.get( KEY ) ).isNull();
+        assertThat( cache.get( OTHER_KEY ) ).isFile();
+    }
+
+    @Test
+    public void touchesEntryWhenUsed()
+        throws IOException
+    {
+        File directory = folder.newFolder( "cache" );
+        long entrySize = storeEntry( directory, KEY );
+
+        ClassesCache cache = new ClassesCache( directory, entrySize * 3 / 2 );
+        cache.get( KEY ).setLastModified( 1000 );
+        cache.get( KEY );
+        cache.put( OTHER_KEY, compiled( "Bar.class", "0123456789" ) );
+        cache.get( OTHER_KEY ).setLastModified( 2000 );
+        cache.evict();
+
+        assertThat( cache.get( KEY ) ).isFile();
+        assertThat( cache.get( OTHER_KEY ) ).isNull();
+    }
+
+    @Test
+    public void defersEvictionUntilEnoughIsStored()
+        throws IOException
+    {
+        File directory = folder.newFolder( "cache" );
+        long entrySize = storeEntry( directory, KEY );
+
+        // nothing stored since the last walk
+        ClassesCache cache = new ClassesCache( directory, entrySize / 2 );
+        cache.evict();
+
+        assertThat( cache.get( KEY ) ).isFile();
+    }
+
+    @Test
+    public void rejectsEntryOutsideOfDirectory()
+        throws IOException
+    {
+        File jar = folder.newFile( "evil.jar" );
+
+        try ( JarOutputStream out = new JarOutputStream( Files.newOutputStream( jar.toPath() ) ) )
+        {
+            out.putNextEntry( new JarEntry( "../Evil.class" ) );
+            out.write( "evil".getBytes( StandardCharsets.UTF_8 ) );
+            out.closeEntry();
+        }
+
+        File classesDirectory = folder.newFolder( "classes" );
+
+        try
+        {
+            ClassesCache.extract( jar, classesDirectory );
+
+            fail( "Entry outside of directory extracted." );
+        }
+        catch ( IOException e )
+        {
+            assertThat( e ).hasMessageContaining( "../Evil.class" );
+        }
+
+        assertThat( new File( folder.getRoot(), "Evil.class" ) ).doesNotExist();
+    }
+
+    /**
+     * Stores an entry through another cache instance, so it is not counted as stored by the returned size.
+     *
+     * @return size of the entry.
+     */
+    private long storeEntry( File directory, String key )
+        throws IOException
+    {
+        ClassesCache cache = new ClassesCache( directory, Long.MAX_VALUE );
+        cache.put( key, compiled( "Foo.class", "0123456789" ) );
+
+        return cache.get( key ).length();
+    }
+
+    private File compiled( String path, String content )
+        throws IOException
+    {
+        File directory = folder.newFolder();
+        File file = new File( directory, path );
+        file.getParentFile().mkdirs();
+
+        Files.write( file.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+
+        return directory;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImportScannerTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scansImportAndEmbedExpressions()
+        throws IOException
+    {
+        File schema =
+            write(
+                "schema.capnp",
+                "using Foo = import \"foo.capnp\".Foo;",
+                "using import \"/bar/bar.capnp\";",
+                "const data :Data = embed \"data.bin\";",
+                "struct S { a @0 :import \"baz.capnp\".Baz; b @1 :import \"qux.capnp\".Qux; }" );
+
+        assertThat( new ImportScanner( Arrays.<File> asList() ).scan( schema ) )
+            .containsExactly( "foo.capnp", "/bar/bar.capnp", "data.bin", "baz.capnp", "qux.capnp" );
+    }
+
+    @Test
+    public void ignoresCommentsAndQuotedText()
+        throws IOException
+    {
+        File schema =
+            write(
+                "schema.capnp",
+                "# using import \"commented.capnp\";",
+                "const s :Text = \"#\"; using import \"foo.capnp\"; # import \"trailing.capnp\"",
+                "const t :Text = \"import \\\"escaped.capnp\\\" #\"; using import \"bar.capnp\";" );
+
+        assertThat( new ImportScanner( Arrays.<File> asList() ).scan( schema ) )
+            .containsExactly( "foo.capnp", "bar.capnp" );
+    }
+
+    @Test
+    public void resolvesRelativeImportFromImportingFile()
+        throws IOException
+    {
+        File schema = write( "a/schema.capnp" );
+        File imported = write( "a/b/foo.capnp" );
+
+        ImportScanner scanner = new ImportScanner( Arrays.<File> asList() );
+
+        assertThat( scanner.resolve( "b/foo.capnp", schema ) ).isEqualTo( imported );
+        assertThat( scanner.resolve( "foo.capnp", schema ) ).isNull();
+    }
+
+    @Test
+    public void resolvesAbsoluteImportInImportPathOrder()
+        throws IOException
+    {
+        File schema = write( "schemas/schema.capnp" );
+        File first = folder.newFolder( "first" );
+        File second = folder.newFolder( "second" );
+        write( "first/only-first.capnp" );
+        write( "second/foo.capnp" );
+        File shadowing = write( "first/foo.capnp" );
+
+        ImportScanner scanner = new ImportScanner( Arrays.asList( first, second ) );
+
+        assertThat( scanner.resolve( "/foo.capnp", schema ) ).isEqualTo( shadowing );
+        assertThat( scanner.resolve( "/only-first.capnp", schema ) )
+            .isEqualTo( new File( first, "only-first.capnp" ) );
+        assertThat( scanner.resolve( "/missing.capnp", schema ) ).isNull();
+    }
+
+    private File write( String name, String... lines )
+        throws IOException
+    {
+        File file = new File( folder.getRoot(), name );
+        file.getParentFile().mkdirs();
+
+        Files.write( file.toPath(), Arrays.asList( lines ), StandardCharsets.UTF_8 );
+
+        return file;
+    }
+}
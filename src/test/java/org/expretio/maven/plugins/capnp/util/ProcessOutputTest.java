@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class ProcessOutputTest
+{
+    @Test
+    public void splitsLinesOnAnyTerminator()
+        throws InterruptedException
+    {
+        assertThat( drain( 10, "a\nb\r\nc\rd\n\ne" ) ).containsExactly( "a", "b", "c", "d", "", "e" );
+    }
+
+    @Test
+    public void decodesUtf8()
+        throws InterruptedException
+    {
+        assertThat( drain( 10, "foo.capnp:1:1: error: caract\u00e8re \u00ab \u00e9 \u00bb inattendu\n" ) )
+            .containsExactly( "foo.capnp:1:1: error: caract\u00e8re \u00ab \u00e9 \u00bb inattendu" );
+    }
+
+    @Test
+    public void truncatesLongLines()
+        throws InterruptedException
+    {
+        List<String> lines = drain( 10, Strings.repeat( "x", 100000 ) + "\nnext" );
+
+        assertThat( lines ).hasSize( 2 );
+        assertThat( lines.get( 0 ) ).isEqualTo( Strings.repeat( "x", 4096 ) + "..." );
+        assertThat( lines.get( 1 ) ).isEqualTo( "next" );
+    }
+
+    @Test
+    public void keepsLastLines()
+        throws InterruptedException
+    {
+        assertThat( drain( 2, "a\nb\nc\nd\n" ) ).containsExactly( "[2 line(s) omitted]", "c", "d" );
+    }
+
+    @Test
+    public void collectsAllStreams()
+        throws InterruptedException
+    {
+        ProcessOutput output = new ProcessOutput( 10 );
+        output.drain( new ByteArrayInputStream( "a\n".getBytes( StandardCharsets.UTF_8 ) ) );
+        output.drain( new ByteArrayInputStream( "b\n".getBytes( StandardCharsets.UTF_8 ) ) );
+        output.await();
+
+        assertThat( output.getLines() ).containsOnly( "a", "b" );
+    }
+
+    private static List<String> drain( int maxLines, String text )
+        throws InterruptedException
+    {
+        ProcessOutput output = new ProcessOutput( maxLines );
+        output.drain( new ByteArrayInputStream( text.getBytes( StandardCharsets.UTF_8 ) ) );
+        output.await();
+
+        return output.getLines();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SchemasCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void extractsSchemasOfJar()
+        throws IOException
+    {
+        SchemasCache cache = new SchemasCache( folder.newFolder( "cache" ) );
+
+        File directory = cache.get( jar( "lib.jar", "a/foo.capnp", "foo" ), "g", "a", "1.0" );
+
+        assertThat( directory ).isDirectory();
+        assertThat( new File( directory, "a/foo.capnp" ) ).hasContent( "foo" );
+        assertThat( new File( directory, "META-INF" ) ).doesNotExist();
+    }
+
+    @Test
+    public void keepsSchemasOfSameJar()
+        throws IOException
+    {
+        SchemasCache cache = new SchemasCache( folder.newFolder( "cache" ) );
+        File jarFile = jar( "lib.jar", "a/foo.capnp", "foo" );
+
+        File directory = cache.get( jarFile, "g", "a", "1.0" );
+        File marker = new File( directory, "marker" );
+        Files.write( marker.toPath(), new byte[0] );
+
+        assertThat( cache.get( jarFile, "g", "a", "1.0" ) ).isEqualTo( directory );
+        assertThat( marker ).exists();
+    }
+
+    @Test
+    public void replacesSchemasOfChangedJarInSameDirectory()
+        throws IOException
+    {
+        SchemasCache cache = new SchemasCache( folder.newFolder( "cache" ) );
+
+        File directory = cache.get( jar( "lib-1.jar", "a/foo.capnp", "foo" ), "g", "a", "1.0-SNAPSHOT" );
+        File changedDirectory = cache.get( jar( "lib-2.jar", "a/bar.capnp", "bar" ), "g", "a", "1.0-SNAPSHOT" );
+
+        assertThat( changedDirectory ).isEqualTo( directory );
+        assertThat( new File( directory, "a/bar.capnp" ) ).hasContent( "bar" );
+        assertThat( new File( directory, "a/foo.capnp" ) ).doesNotExist();
+        assertThat( directory.getParentFile().list() ).containsOnly( ".lock", "1.0-SNAPSHOT", "1.0-SNAPSHOT.sha1" );
+    }
+
+    @Test
+    public void rejectsEntryOutsideOfDirectory()
+        throws IOException
+    {
+        SchemasCache cache = new SchemasCache( folder.newFolder( "cache" ) );
+
+        try
+        {
+            cache.get( jar( "evil.jar", "../evil.capnp", "evil" ), "g", "a", "1.0" );
+
+            fail( "Entry outside of directory extracted." );
+        }
+        catch ( IOException e )
+        {
+            assertThat( e ).hasMessageContaining( "../evil.capnp" );
+        }
+
+        assertThat( new File( folder.getRoot(), "cache/g/a/evil.capnp" ) ).doesNotExist();
+        assertThat( new File( folder.getRoot(), "cache/g/a/1.0" ) ).doesNotExist();
+    }
+
+    private File jar( String name, String entry, String content )
+        throws IOException
+    {
+        File file = new File( folder.getRoot(), name );
+
+        try ( JarOutputStream out = new JarOutputStream( Files.newOutputStream( file.toPath() ) ) )
+        {
+            out.putNextEntry( new JarEntry( "META-INF/MANIFEST.MF" ) );
+            out.closeEntry();
+            out.putNextEntry( new JarEntry( entry ) );
+            out.write( content.getBytes( StandardCharsets.UTF_8 ) );
+            out.closeEntry();
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Copyright (c) 2015 ExPretio Technologies, Inc. and contributors
+ *  Licensed under the MIT License:
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package org.expretio.maven.plugins.capnp.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SourcesCacheTest
+{
+    private static final String KEY = "0123456789abcdef0123456789abcdef01234567";
+    private static final String OTHER_KEY = "fedcba9876543210fedcba9876543210fedcba98";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void getsStoredEntry()
+        throws IOException
+    {
+        SourcesCache cache = new SourcesCache( folder.newFolder( "cache" ), Long.MAX_VALUE );
+
+        cache.put( KEY, generated( "a/Foo.java", "foo" ) );
+
+        File entry = cache.get( KEY );
+
+        assertThat( entry ).isDirectory();
+        assertThat( new File( entry, "a/Foo.java" ) ).hasContent( "foo" );
+        assertThat( cache.get( OTHER_KEY ) ).isNull();
+    }
+
+    @Test
+    public void keepsExistingEntry()
+        throws IOException
+    {
+        SourcesCache cache = new SourcesCache( folder.newFolder( "cache" ), Long.MAX_VALUE );
+
+        cache.put( KEY, generated( "a/Foo.java", "foo" ) );
+        cache.put( KEY, generated( "a/Foo.java", "bar" ) );
+
+        assertThat( new File( cache.get( KEY ), "a/Foo.java" ) ).hasContent( "foo" );
+    }
+
+    @Test
+    public void storesEmptyEntryOfMissingDirectory()
+        throws IOException
+    {
+        SourcesCache cache = new SourcesCache( folder.newFolder( "cache" ), Long.MAX_VALUE );
+
+        cache.put( KEY, new File( folder.getRoot(), "missing" ) );
+
+        assertThat( cache.get( KEY ) ).isDirectory();
+        assertThat( cache.get( KEY ).list() ).isEmpty();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries()
+        throws IOException
+    {
+        File directory = folder.newFolder( "cache" );
+        SourcesCache cache = new SourcesCache( directory, 10 );
+
+        cache.put( KEY, generated( "Foo.java", "0123456789" ) );
+        cache.get( KEY ).setLastModified( 1000 );
+        cache.put( OTHER_KEY, generated( "Bar.java", "0123456789" ) );
+        cache.evict();
+
+        assertThat( cache.get( KEY ) ).isNull();
+        assertThat( cache.get( OTHER_KEY ) ).isDirectory();
+    }
+
+    @Test
+    public void defersEvictionUntilEnoughIsStored()
+        throws IOException
+    {
+        File directory = folder.newFolder( "cache" );
+        File largeEntry = new File( directory, "ab/ab" + KEY.substring( 2 ) );
+        largeEntry.mkdirs();
+        Files.write( new File( largeEntry, "Large.java" ).toPath(), new byte[ 2000 ] );
+        largeEntry.setLastModified( 1000 );
+
+        // walked once a sixteenth of the maximum size, 100 bytes, is stored by any build
+        SourcesCache cache = new SourcesCache( directory, 1600 );
+        cache.put( KEY, generated( "Foo.java", new String( new char[ 60 ] ) ) );
+        cache.evict();
+
+        assertThat( largeEntry ).isDirectory();
+
+        SourcesCache otherCache = new SourcesCache( directory, 1600 );
+        otherCache.put( OTHER_KEY, generated( "Bar.java", new String( new char[ 60 ] ) ) );
+        otherCache.evict();
+
+        assertThat( largeEntry ).doesNotExist();
+        assertThat( otherCache.get( KEY ) ).isDirectory();
+        assertThat( otherCache.get( OTHER_KEY ) ).isDirectory();
+    }
+
+    @Test
+    public void ignoresTemporaryDirectoriesOnEviction()
+        throws IOException
+    {
+        File directory = folder.newFolder( "cache" );
+        File tempDirectory = new File( directory, "01/.tmp-" + KEY + "123" );
+        tempDirectory.mkdirs();
+        Files.write( new File( tempDirectory, "Foo.java" ).toPath(), new byte[ 100 ] );
+
+        SourcesCache cache = new SourcesCache( directory, 0 );
+        cache.evict();
+
+        assertThat( tempDirectory ).isDirectory();
+    }
+
+    @Test
+    public void defersEvictionOfLockedCache()
+        throws Exception
+    {
+        File directory = folder.newFolder( "cache" );
+        final SourcesCache cache = new SourcesCache( directory, 10 );
+
+        cache.put( KEY, generated( "Foo.java", "0123456789" ) );
+        cache.put( OTHER_KEY, generated( "Bar.java", "0123456789" ) );
+
+        DirectoryLock lock = cache.lock();
+        File entry = cache.get( KEY );
+        entry.setLastModified( 1000 );
+
+        Thread evictor =
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        cache.evict();
+                    }
+                    catch ( IOException e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                }
+            };
+
+        try
+        {
+            evictor.start();
+            evictor.join( 500 );
+
+            assertThat( new File( entry, "Foo.java" ) ).hasContent( "0123456789" );
+        }
+        finally
+        {
+            lock.close();
+        }
+
+        evictor.join();
+
+        assertThat( entry ).doesNotExist();
+    }
+
+    private File generated( String path, String content )
+        throws IOException
+    {
+        File directory = folder.newFolder();
+        File file = new File( directory, path );
+        file.getParentFile().mkdirs();
+
+        Files.write( file.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+
+        return directory;
+    }
+}